@@ -0,0 +1,233 @@
+package com.github.forax.recordutil.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.RecordComponentElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static java.util.stream.IntStream.range;
+
+/**
+ * An annotation processor that generates a descriptor class for each record annotated with
+ * {@code com.github.forax.recordutil.RecordDescriptor.Generate}.
+ *
+ * For a record {@code Person}, the processor generates in the same package a class
+ * {@code Person$$RecordDescriptor} that implements {@code com.github.forax.recordutil.RecordDescriptor}
+ * by calling directly the record accessors and the record constructor.
+ * At runtime, the module {@code com.github.forax.recordutil} uses that class instead of using
+ * the reflection, so the package of the record does not have to be open to the module
+ * {@code com.github.forax.recordutil}.
+ *
+ * To enable the processor with Maven, add the processor to the configuration
+ * of the maven-compiler-plugin
+ * <pre>
+ *   &lt;annotationProcessorPaths&gt;
+ *     &lt;path&gt;
+ *       &lt;groupId&gt;com.github.forax.recordutil&lt;/groupId&gt;
+ *       &lt;artifactId&gt;com.github.forax.recordutil.processor&lt;/artifactId&gt;
+ *       &lt;version&gt;1.0-SNAPSHOT&lt;/version&gt;
+ *     &lt;/path&gt;
+ *   &lt;/annotationProcessorPaths&gt;
+ * </pre>
+ *
+ * An annotated element that is not a record, or a record that is not accessible from its package
+ * (a private record or a record with a record component typed by a private class), is reported as an error.
+ */
+@SupportedAnnotationTypes(RecordDescriptorProcessor.GENERATE)
+public class RecordDescriptorProcessor extends AbstractProcessor {
+  static final String GENERATE = "com.github.forax.recordutil.RecordDescriptor.Generate";
+
+  /**
+   * Creates the annotation processor, it is called by the compiler.
+   */
+  public RecordDescriptorProcessor() {
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for(var annotation: annotations) {
+      for(var element: roundEnv.getElementsAnnotatedWith(annotation)) {
+        if (element.getKind() != ElementKind.RECORD) {
+          processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+              "@RecordDescriptor.Generate can only annotate a record", element);
+          continue;
+        }
+        var record = (TypeElement) element;
+        if (!isAccessibleFromPackage(record)) {
+          processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+              "no record descriptor generated for " + record + " because it is not accessible from its package", record);
+          continue;
+        }
+        generate(record);
+      }
+    }
+    return true;
+  }
+
+  private boolean isAccessibleFromPackage(TypeElement record) {
+    if (!isAccessibleFromPackage((Element) record)) {
+      return false;
+    }
+    var types = processingEnv.getTypeUtils();
+    for(var component: record.getRecordComponents()) {
+      var type = types.erasure(component.asType());
+      while (type instanceof ArrayType arrayType) {
+        type = arrayType.getComponentType();
+      }
+      if (type instanceof DeclaredType declaredType && !isAccessibleFromPackage(declaredType.asElement())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isAccessibleFromPackage(Element type) {
+    for(Element element = type; element.getKind() != ElementKind.PACKAGE; element = element.getEnclosingElement()) {
+      if (!element.getKind().isClass() && !element.getKind().isInterface()) {
+        return false;  // local class
+      }
+      if (element.getModifiers().contains(Modifier.PRIVATE)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the name of an erased type as it should appear in the source code,
+   * without the type annotations that {@link TypeMirror#toString()} may print.
+   */
+  private static String sourceName(TypeMirror type) {
+    if (type.getKind().isPrimitive()) {
+      return type.getKind().name().toLowerCase(Locale.ROOT);
+    }
+    if (type instanceof ArrayType arrayType) {
+      return sourceName(arrayType.getComponentType()) + "[]";
+    }
+    if (type instanceof DeclaredType declaredType) {
+      return ((TypeElement) declaredType.asElement()).getQualifiedName().toString();
+    }
+    throw new IllegalStateException("unexpected type " + type.getKind());
+  }
+
+  private void generate(TypeElement record) {
+    var elements = processingEnv.getElementUtils();
+    var packageName = elements.getPackageOf(record).getQualifiedName().toString();
+    var binaryName = elements.getBinaryName(record).toString();
+    var simpleBinaryName = packageName.isEmpty()? binaryName: binaryName.substring(packageName.length() + 1);
+    var className = simpleBinaryName + "$$RecordDescriptor";
+    var source = generateSource(packageName, className, record);
+    try {
+      var file = processingEnv.getFiler().createSourceFile(packageName.isEmpty()? className: packageName + '.' + className, record);
+      try(var writer = file.openWriter()) {
+        writer.write(source);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private String generateSource(String packageName, String className, TypeElement record) {
+    var types = processingEnv.getTypeUtils();
+    var recordName = record.getQualifiedName().toString();
+    List<? extends RecordComponentElement> components = record.getRecordComponents();
+    var componentTypes = components.stream()
+        .map(component -> sourceName(types.erasure(component.asType())))
+        .toList();
+
+    var names = components.stream()
+        .map(component -> '"' + component.getSimpleName().toString() + '"')
+        .collect(Collectors.joining(", "));
+    var classes = componentTypes.stream()
+        .map(type -> type + ".class")
+        .collect(Collectors.joining(", "));
+    var cases = range(0, components.size())
+        .mapToObj(i -> "      case " + i + ": return r." + components.get(i).getSimpleName() + "();\n")
+        .collect(Collectors.joining());
+    var nameCases = components.stream()
+        .map(component -> "      case \"" + component.getSimpleName() + "\": return r." + component.getSimpleName() + "();\n")
+        .collect(Collectors.joining());
+    var copies = range(0, components.size())
+        .mapToObj(i -> "    dst[offset + " + i + "] = r." + components.get(i).getSimpleName() + "();\n")
+        .collect(Collectors.joining());
+    var arguments = range(0, components.size())
+        .mapToObj(i -> "(" + componentTypes.get(i) + ") values[" + i + "]")
+        .collect(Collectors.joining(", "));
+
+    return (packageName.isEmpty()? "": "package " + packageName + ";\n\n") + """
+        // Generated by com.github.forax.recordutil.processor.RecordDescriptorProcessor, do not edit
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final class %1$s implements com.github.forax.recordutil.RecordDescriptor {
+          static {
+            com.github.forax.recordutil.RecordDescriptor.register(java.lang.invoke.MethodHandles.lookup(), new %1$s());
+          }
+
+          private %1$s() {}
+
+          @Override
+          public Class<?> recordType() {
+            return %2$s.class;
+          }
+
+          @Override
+          public String[] names() {
+            return new String[] { %3$s };
+          }
+
+          @Override
+          public Class<?>[] types() {
+            return new Class<?>[] { %4$s };
+          }
+
+          @Override
+          public Object get(Object record, int index) {
+            var r = (%2$s) record;
+            switch (index) {
+        %5$s      default: throw new IllegalArgumentException("invalid index " + index);
+            }
+          }
+
+          @Override
+          public Object get(Object record, String name, Object defaultValue) {
+            var r = (%2$s) record;
+            switch (name) {
+        %8$s      default: return defaultValue;
+            }
+          }
+
+          @Override
+          public void copyTo(Object record, Object[] dst, int offset) {
+            var r = (%2$s) record;
+        %9$s  }
+
+          @Override
+          public Object newInstance(Object[] values) {
+            if (values.length != %6$d) {
+              throw new IllegalArgumentException("invalid number of values " + values.length);
+            }
+            return new %2$s(%7$s);
+          }
+        }
+        """.formatted(className, recordName, names, classes, cases, components.size(), arguments, nameCases, copies);
+  }
+}
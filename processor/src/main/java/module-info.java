@@ -0,0 +1,15 @@
+/**
+ * A module containing an annotation processor that generates at compile time
+ * the descriptors of the records annotated with
+ * {@code com.github.forax.recordutil.RecordDescriptor.Generate}.
+ *
+ * @see com.github.forax.recordutil.processor.RecordDescriptorProcessor
+ */
+module com.github.forax.recordutil.processor {
+  requires java.compiler;
+
+  exports com.github.forax.recordutil.processor;
+
+  provides javax.annotation.processing.Processor
+      with com.github.forax.recordutil.processor.RecordDescriptorProcessor;
+}
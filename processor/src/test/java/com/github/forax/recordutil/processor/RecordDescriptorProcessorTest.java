@@ -0,0 +1,207 @@
+package com.github.forax.recordutil.processor;
+
+import org.junit.jupiter.api.Test;
+
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordDescriptorProcessorTest {
+  // the processor does not depend on com.github.forax.recordutil, so the tests use stubs
+  private static final Map<String, String> STUBS = Map.of(
+      "com/github/forax/recordutil/MapTrait", """
+          package com.github.forax.recordutil;
+          public interface MapTrait {}
+          """,
+      "com/github/forax/recordutil/WithTrait", """
+          package com.github.forax.recordutil;
+          public interface WithTrait<R> {}
+          """,
+      "com/github/forax/recordutil/RecordDescriptor", """
+          package com.github.forax.recordutil;
+          public interface RecordDescriptor {
+            @java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.SOURCE)
+            @interface Generate {}
+            Class<?> recordType();
+            String[] names();
+            Class<?>[] types();
+            Object get(Object record, int index);
+            Object get(Object record, String name, Object defaultValue);
+            void copyTo(Object record, Object[] dst, int offset);
+            Object newInstance(Object[] values);
+            static void register(java.lang.invoke.MethodHandles.Lookup lookup, RecordDescriptor descriptor) {}
+          }
+          """);
+
+  private static JavaFileObject source(String name, String code) {
+    return new SimpleJavaFileObject(URI.create("string:///" + name + ".java"), JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return code;
+      }
+    };
+  }
+
+  private static Path compile(String name, String code) throws IOException {
+    return compile(name, code, true);
+  }
+
+  private static Path compile(String name, String code, boolean success) throws IOException {
+    var output = Files.createTempDirectory("processor-test");
+    var sources = new ArrayList<JavaFileObject>();
+    STUBS.forEach((stubName, stubCode) -> sources.add(source(stubName, stubCode)));
+    sources.add(source(name, code));
+    var compiler = ToolProvider.getSystemJavaCompiler();
+    var task = compiler.getTask(null, null, null,
+        List.of("-d", output.toString(), "-s", output.toString()), null, sources);
+    task.setProcessors(List.of(new RecordDescriptorProcessor()));
+    assertEquals(success, task.call());
+    return output;
+  }
+
+  @Test
+  public void generateMapTrait() throws IOException {
+    var output = compile("p/Person", """
+        package p;
+        import com.github.forax.recordutil.MapTrait;
+        import com.github.forax.recordutil.RecordDescriptor;
+        @RecordDescriptor.Generate
+        public record Person(String name, int age) implements MapTrait {}
+        """);
+    var source = Files.readString(output.resolve("p/Person$$RecordDescriptor.java"));
+    assertAll(
+        () -> assertTrue(source.contains("return new String[] { \"name\", \"age\" };")),
+        () -> assertTrue(source.contains("return new Class<?>[] { java.lang.String.class, int.class };")),
+        () -> assertTrue(source.contains("case 0: return r.name();")),
+        () -> assertTrue(source.contains("case 1: return r.age();")),
+        () -> assertTrue(source.contains("case \"name\": return r.name();")),
+        () -> assertTrue(source.contains("dst[offset + 1] = r.age();")),
+        () -> assertTrue(source.contains("return new p.Person((java.lang.String) values[0], (int) values[1]);")),
+        () -> assertTrue(Files.exists(output.resolve("p/Person$$RecordDescriptor.class")))
+    );
+  }
+
+  @Test
+  public void generateNestedGenericRecord() throws IOException {
+    var output = compile("p/Outer", """
+        package p;
+        import com.github.forax.recordutil.WithTrait;
+        import java.util.List;
+        public class Outer {
+          @com.github.forax.recordutil.RecordDescriptor.Generate
+          record Box<T>(T value, List<String> names) implements WithTrait<Box<T>> {}
+        }
+        """);
+    var source = Files.readString(output.resolve("p/Outer$Box$$RecordDescriptor.java"));
+    assertAll(
+        () -> assertTrue(source.contains("return new Class<?>[] { java.lang.Object.class, java.util.List.class };")),
+        () -> assertTrue(source.contains("return new p.Outer.Box((java.lang.Object) values[0], (java.util.List) values[1]);")),
+        () -> assertTrue(Files.exists(output.resolve("p/Outer$Box$$RecordDescriptor.class")))
+    );
+  }
+
+  @Test
+  public void generateEmptyRecord() throws IOException {
+    var output = compile("p/Empty", """
+        package p;
+        @com.github.forax.recordutil.RecordDescriptor.Generate
+        public record Empty() implements com.github.forax.recordutil.MapTrait {}
+        """);
+    assertTrue(Files.exists(output.resolve("p/Empty$$RecordDescriptor.class")));
+  }
+
+  @Test
+  public void notAnnotated() throws IOException {
+    var output = compile("p/Point", """
+        package p;
+        public record Point(int x, int y) implements com.github.forax.recordutil.MapTrait {}
+        """);
+    assertFalse(Files.exists(output.resolve("p/Point$$RecordDescriptor.java")));
+  }
+
+  @Test
+  public void notARecord() throws IOException {
+    var output = compile("p/Point", """
+        package p;
+        @com.github.forax.recordutil.RecordDescriptor.Generate
+        public class Point {}
+        """, false);
+    assertFalse(Files.exists(output.resolve("p/Point$$RecordDescriptor.java")));
+  }
+
+  @Test
+  public void privateRecord() throws IOException {
+    var output = compile("p/Outer", """
+        package p;
+        import com.github.forax.recordutil.RecordDescriptor;
+        public class Outer {
+          @RecordDescriptor.Generate
+          private record Point(int x, int y) {}
+        }
+        """, false);
+    assertFalse(Files.exists(output.resolve("p/Outer$Point$$RecordDescriptor.java")));
+  }
+
+  @Test
+  public void privateComponentType() throws IOException {
+    var output = compile("p/Outer", """
+        package p;
+        import com.github.forax.recordutil.RecordDescriptor;
+        public class Outer {
+          private static class Secret {}
+          @RecordDescriptor.Generate
+          record Box(Secret[] secrets) {}
+        }
+        """, false);
+    assertFalse(Files.exists(output.resolve("p/Outer$Box$$RecordDescriptor.java")));
+  }
+
+  @Test
+  public void localRecord() throws IOException {
+    var output = compile("p/Outer", """
+        package p;
+        import com.github.forax.recordutil.RecordDescriptor;
+        public class Outer {
+          void m() {
+            @RecordDescriptor.Generate
+            record Point(int x, int y) {}
+          }
+        }
+        """);
+    try(var files = Files.walk(output)) {
+      assertTrue(files.noneMatch(file -> file.toString().endsWith("$$RecordDescriptor.java")));
+    }
+  }
+
+  @Test
+  public void typeAnnotatedComponents() throws IOException {
+    var output = compile("p/Person", """
+        package p;
+        import com.github.forax.recordutil.RecordDescriptor;
+        import java.lang.annotation.ElementType;
+        import java.lang.annotation.Target;
+        import java.util.List;
+        @Target(ElementType.TYPE_USE)
+        @interface NonNull {}
+        @RecordDescriptor.Generate
+        public record Person(@NonNull String name, List<@NonNull String> aliases, int @NonNull [] scores,
+                             java.util.Map.@NonNull Entry<String, String> entry) {}
+        """);
+    var source = Files.readString(output.resolve("p/Person$$RecordDescriptor.java"));
+    assertAll(
+        () -> assertFalse(source.contains("NonNull")),
+        () -> assertTrue(source.contains("return new Class<?>[] { java.lang.String.class, java.util.List.class, int[].class, java.util.Map.Entry.class };")),
+        () -> assertTrue(source.contains("return new p.Person((java.lang.String) values[0], (java.util.List) values[1], (int[]) values[2], (java.util.Map.Entry) values[3]);")),
+        () -> assertTrue(Files.exists(output.resolve("p/Person$$RecordDescriptor.class")))
+    );
+  }
+}
@@ -0,0 +1,397 @@
+package com.github.forax.recordutil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodHandles.Lookup.ClassOption;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Generates at runtime a class that implements {@link RecordAccessor} for a record class.
+ *
+ * The method {@link RecordAccessor#get(Object, int)} is implemented using a {@code tableswitch}
+ * on the index that calls directly the record accessors, so unlike a method handle stored in an array,
+ * the code is monomorphic and can be inlined by the JIT.
+ * The method {@link RecordAccessor#get(Object, String, Object)} is implemented using a {@code lookupswitch}
+ * on the hash code of the name followed by a call to {@link String#equals(Object)}.
+ * The method {@link RecordAccessor#copyTo(Object, Object[], int)} calls all the record accessors in sequence,
+ * so reading all the values of a record costs only one call to the accessor.
+ *
+ * The class is defined in the package of the record as a hidden class nestmate of the lookup class,
+ * so the lookup has to have the full privilege access. If it has not (by example, the lookup is teleported
+ * from another module), a {@link LinkageError} is thrown and the caller should use the getters
+ * as method handles instead, a named class is never defined in the package of the record
+ * because it can not be unloaded.
+ * The lookup of a record descriptor (see {@link RecordDescriptor}) has the full privilege access
+ * even if the record is declared in another module.
+ */
+class AccessorGenerator {
+  private static final int ACC_PUBLIC = 0x0001, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+  private static final int ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c, ALOAD_3 = 0x2d, ALOAD = 0x19, ASTORE = 0x3a,
+      ILOAD_2 = 0x1c, ILOAD_3 = 0x1d, ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, IADD = 0x60, AASTORE = 0x53,
+      NEW = 0xbb, DUP = 0x59, CHECKCAST = 0xc0, TABLESWITCH = 0xaa, LOOKUPSWITCH = 0xab, IFEQ = 0x99,
+      INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8,
+      RETURN = 0xb1, ARETURN = 0xb0, ATHROW = 0xbf;
+
+  private static final int SAME_FRAME_EXTENDED = 251;
+
+  static RecordAccessor generate(Lookup lookup, Class<?> type, RecordComponent[] components) {
+    if (!lookup.hasFullPrivilegeAccess()) {
+      throw new LinkageError("can not define the accessor of " + type.getName() + ", the lookup has not the full privilege access");
+    }
+    var className = type.getName().replace('.', '/') + "$$RecordAccessor";
+    var bytes = generateBytes(className, type, components);
+    try {
+      // a nestmate can call the accessors of a private record
+      var accessorClass = lookup.defineHiddenClass(bytes, true, ClassOption.NESTMATE).lookupClass();
+      return (RecordAccessor) lookup.findConstructor(accessorClass, methodType(void.class)).invoke();
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw (LinkageError) new LinkageError("can not define the accessor of " + type.getName()).initCause(t);
+    }
+  }
+
+  static byte[] generateBytes(String className, Class<?> type, RecordComponent[] components) {
+    var pool = new ConstantPool();
+    var thisClass = pool.classRef(className);
+    var superClass = pool.classRef("java/lang/Object");
+    var accessorInterface = pool.classRef(RecordAccessor.class.getName().replace('.', '/'));
+    var code = pool.utf8("Code");
+    var stackMapTable = pool.utf8("StackMapTable");
+
+    var methods = new ArrayList<byte[]>();
+    methods.add(method(pool, ACC_PUBLIC, "<init>", "()V", code, stackMapTable, 1, 1,
+        init(pool), List.of()));
+
+    var recordClass = type.getName().replace('.', '/');
+    var targets = new ArrayList<Integer>();
+    var getBody = get(pool, recordClass, components, targets);
+    methods.add(method(pool, ACC_PUBLIC, "get", "(Ljava/lang/Object;I)Ljava/lang/Object;", code, stackMapTable, 2, 3,
+        getBody, targets));
+    var nameTargets = new ArrayList<Integer>();
+    var getByNameBody = getByName(pool, recordClass, components, nameTargets);
+    methods.add(method(pool, ACC_PUBLIC, "get", "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/Object;)Ljava/lang/Object;",
+        code, stackMapTable, 2, 4, getByNameBody, nameTargets));
+    methods.add(method(pool, ACC_PUBLIC, "copyTo", "(Ljava/lang/Object;[Ljava/lang/Object;I)V", code, stackMapTable, 4, 5,
+        copyTo(pool, recordClass, components), List.of()));
+
+    var output = new ByteArrayOutputStream();
+    try(var out = new DataOutputStream(output)) {
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(52);
+      pool.write(out);
+      out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(1);
+      out.writeShort(accessorInterface);
+      out.writeShort(0);  // fields
+      out.writeShort(methods.size());
+      for(var method: methods) {
+        out.write(method);
+      }
+      out.writeShort(0);  // attributes
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return output.toByteArray();
+  }
+
+  private static byte[] init(ConstantPool pool) {
+    var code = new Code();
+    code.u1(ALOAD_0);
+    code.u1(INVOKESPECIAL);
+    code.u2(pool.methodRef("java/lang/Object", "<init>", "()V"));
+    code.u1(RETURN);
+    return code.toByteArray();
+  }
+
+  private static byte[] get(ConstantPool pool, String recordClass, RecordComponent[] components, List<Integer> targets) {
+    var code = new Code();
+    var length = components.length;
+    if (length != 0) {
+      code.u1(ILOAD_2);
+      var tableswitch = code.offset();
+      code.u1(TABLESWITCH);
+      code.align();
+      var defaultPatch = code.offset();
+      code.u4(0);
+      code.u4(0);
+      code.u4(length - 1);
+      var patch = code.offset();
+      for(var i = 0; i < length; i++) {
+        code.u4(0);
+      }
+      for(var i = 0; i < length; i++) {
+        code.patch(patch + 4 * i, code.offset() - tableswitch);
+        targets.add(code.offset());
+        code.u1(ALOAD_1);
+        code.u1(CHECKCAST);
+        code.u2(pool.classRef(recordClass));
+        read(code, pool, recordClass, components[i]);
+        code.u1(ARETURN);
+      }
+      code.patch(defaultPatch, code.offset() - tableswitch);
+      targets.add(code.offset());
+    }
+    code.u1(NEW);
+    code.u2(pool.classRef("java/lang/IllegalArgumentException"));
+    code.u1(DUP);
+    code.u1(INVOKESPECIAL);
+    code.u2(pool.methodRef("java/lang/IllegalArgumentException", "<init>", "()V"));
+    code.u1(ATHROW);
+    return code.toByteArray();
+  }
+
+  private static byte[] getByName(ConstantPool pool, String recordClass, RecordComponent[] components, List<Integer> targets) {
+    // the indexes of the record components grouped by the hash code of their name, sorted by hash code
+    var groups = new TreeMap<Integer, List<Integer>>();
+    for(var i = 0; i < components.length; i++) {
+      groups.computeIfAbsent(components[i].getName().hashCode(), __ -> new ArrayList<>()).add(i);
+    }
+    var code = new Code();
+    if (!groups.isEmpty()) {
+      code.u1(ALOAD_2);
+      code.u1(INVOKEVIRTUAL);
+      code.u2(pool.methodRef("java/lang/String", "hashCode", "()I"));
+      var lookupswitch = code.offset();
+      code.u1(LOOKUPSWITCH);
+      code.align();
+      var defaultPatch = code.offset();
+      code.u4(0);
+      code.u4(groups.size());
+      var patch = code.offset();
+      for(int hash: groups.keySet()) {
+        code.u4(hash);
+        code.u4(0);
+      }
+      var pair = 0;
+      for(var group: groups.values()) {
+        code.patch(patch + 8 * pair++ + 4, code.offset() - lookupswitch);
+        targets.add(code.offset());
+        for(int index: group) {
+          var component = components[index];
+          code.u1(ALOAD_2);
+          code.u1(LDC_W);
+          code.u2(pool.string(component.getName()));
+          code.u1(INVOKEVIRTUAL);
+          code.u2(pool.methodRef("java/lang/String", "equals", "(Ljava/lang/Object;)Z"));
+          var ifeq = code.offset();
+          code.u1(IFEQ);
+          code.u2(0);
+          code.u1(ALOAD_1);
+          code.u1(CHECKCAST);
+          code.u2(pool.classRef(recordClass));
+          read(code, pool, recordClass, component);
+          code.u1(ARETURN);
+          code.patch2(ifeq + 1, code.offset() - ifeq);
+          targets.add(code.offset());
+        }
+        code.u1(ALOAD_3);
+        code.u1(ARETURN);
+      }
+      code.patch(defaultPatch, code.offset() - lookupswitch);
+      targets.add(code.offset());
+    }
+    code.u1(ALOAD_3);
+    code.u1(ARETURN);
+    return code.toByteArray();
+  }
+
+  private static byte[] copyTo(ConstantPool pool, String recordClass, RecordComponent[] components) {
+    var code = new Code();
+    code.u1(ALOAD_1);
+    code.u1(CHECKCAST);
+    code.u2(pool.classRef(recordClass));
+    code.u1(ASTORE);
+    code.u1(4);
+    for(var i = 0; i < components.length; i++) {
+      code.u1(ALOAD_2);
+      code.u1(ILOAD_3);
+      if (i != 0) {
+        pushInt(code, i);
+        code.u1(IADD);
+      }
+      code.u1(ALOAD);
+      code.u1(4);
+      read(code, pool, recordClass, components[i]);
+      code.u1(AASTORE);
+    }
+    code.u1(RETURN);
+    return code.toByteArray();
+  }
+
+  private static void pushInt(Code code, int value) {
+    if (value <= 5) {
+      code.u1(ICONST_0 + value);
+    } else if (value <= Byte.MAX_VALUE) {
+      code.u1(BIPUSH);
+      code.u1(value);
+    } else {
+      code.u1(SIPUSH);
+      code.u2(value);
+    }
+  }
+
+  // calls the accessor of the record on top of the stack and boxes the value if necessary
+  private static void read(Code code, ConstantPool pool, String recordClass, RecordComponent component) {
+    var componentType = component.getType();
+    code.u1(INVOKEVIRTUAL);
+    code.u2(pool.methodRef(recordClass, component.getName(), "()" + componentType.descriptorString()));
+    if (componentType.isPrimitive()) {
+      var wrapper = methodType(componentType).wrap().returnType();
+      code.u1(INVOKESTATIC);
+      code.u2(pool.methodRef(wrapper.getName().replace('.', '/'), "valueOf",
+          "(" + componentType.descriptorString() + ")" + wrapper.descriptorString()));
+    }
+  }
+
+  private static byte[] method(ConstantPool pool, int access, String name, String descriptor,
+                               int codeAttribute, int stackMapTableAttribute, int maxStack, int maxLocals,
+                               byte[] bytecode, List<Integer> targets) {
+    var output = new ByteArrayOutputStream();
+    try(var out = new DataOutputStream(output)) {
+      out.writeShort(access);
+      out.writeShort(pool.utf8(name));
+      out.writeShort(pool.utf8(descriptor));
+      out.writeShort(1);
+
+      // all branch targets share the frame of the method entry, so only 'same' frames are needed
+      var frames = new ByteArrayOutputStream();
+      try(var frameOut = new DataOutputStream(frames)) {
+        var previous = -1;
+        for(int target: targets) {
+          var delta = target - previous - 1;
+          if (delta < 64) {
+            frameOut.writeByte(delta);
+          } else {
+            frameOut.writeByte(SAME_FRAME_EXTENDED);
+            frameOut.writeShort(delta);
+          }
+          previous = target;
+        }
+      }
+
+      var attributeLength = 2 + 2 + 4 + bytecode.length + 2 + 2 + (targets.isEmpty()? 0: 6 + 2 + frames.size());
+      out.writeShort(codeAttribute);
+      out.writeInt(attributeLength);
+      out.writeShort(maxStack);
+      out.writeShort(maxLocals);
+      out.writeInt(bytecode.length);
+      out.write(bytecode);
+      out.writeShort(0);  // exception table
+      if (targets.isEmpty()) {
+        out.writeShort(0);
+      } else {
+        out.writeShort(1);
+        out.writeShort(stackMapTableAttribute);
+        out.writeInt(2 + frames.size());
+        out.writeShort(targets.size());
+        out.write(frames.toByteArray());
+      }
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return output.toByteArray();
+  }
+
+  private static final class Code {
+    private byte[] bytes = new byte[64];
+    private int offset;
+
+    int offset() {
+      return offset;
+    }
+
+    void u1(int value) {
+      if (offset == bytes.length) {
+        bytes = Arrays.copyOf(bytes, offset << 1);
+      }
+      bytes[offset++] = (byte) value;
+    }
+    void u2(int value) {
+      u1(value >> 8);
+      u1(value);
+    }
+    void u4(int value) {
+      u2(value >> 16);
+      u2(value);
+    }
+    void align() {
+      while((offset & 3) != 0) {
+        u1(0);
+      }
+    }
+    void patch2(int offset, int value) {
+      bytes[offset] = (byte) (value >> 8);
+      bytes[offset + 1] = (byte) value;
+    }
+    void patch(int offset, int value) {
+      bytes[offset] = (byte) (value >> 24);
+      bytes[offset + 1] = (byte) (value >> 16);
+      bytes[offset + 2] = (byte) (value >> 8);
+      bytes[offset + 3] = (byte) value;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, offset);
+    }
+  }
+
+  private static final class ConstantPool {
+    private static final int UTF8 = 1, CLASS = 7, STRING = 8, METHOD_REF = 10, NAME_AND_TYPE = 12;
+
+    private record Entry(int tag, Object value1, Object value2) {}
+
+    private final HashMap<Entry, Integer> map = new HashMap<>();
+    private final ArrayList<Entry> entries = new ArrayList<>();
+
+    private int index(int tag, Object value1, Object value2) {
+      return map.computeIfAbsent(new Entry(tag, value1, value2), entry -> {
+        entries.add(entry);
+        return entries.size();  // constant pool indexes start at 1
+      });
+    }
+
+    int utf8(String value) {
+      return index(UTF8, value, null);
+    }
+    int classRef(String internalName) {
+      return index(CLASS, utf8(internalName), null);
+    }
+    int string(String value) {
+      return index(STRING, utf8(value), null);
+    }
+    int methodRef(String owner, String name, String descriptor) {
+      var nameAndType = index(NAME_AND_TYPE, utf8(name), utf8(descriptor));
+      return index(METHOD_REF, classRef(owner), nameAndType);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeShort(entries.size() + 1);
+      for(var entry: entries) {
+        out.writeByte(entry.tag);
+        switch (entry.tag) {
+          case UTF8 -> out.writeUTF((String) entry.value1);
+          case CLASS, STRING -> out.writeShort((int) entry.value1);
+          case METHOD_REF, NAME_AND_TYPE -> {
+            out.writeShort((int) entry.value1);
+            out.writeShort((int) entry.value2);
+          }
+          default -> throw new AssertionError();
+        }
+      }
+    }
+  }
+}
@@ -99,7 +99,7 @@ class JSONParsing {
   }
 
   private static Object parseRecord(JsonParser parser, Class<?> recordType, JSONTrait.Converter converter) throws IOException {
-    var shape = TraitImpl.jsonShape(recordType);
+    var shape = TraitImpl.recordShape(recordType);
     var array = new Object[shape.size()];
     for(;;) {
       var token = parser.nextToken();
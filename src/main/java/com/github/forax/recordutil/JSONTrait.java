@@ -2,8 +2,6 @@ package com.github.forax.recordutil;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.lang.invoke.MethodHandle;
-import java.lang.reflect.UndeclaredThrowableException;
 import java.util.Collection;
 import java.util.stream.Stream;
 
@@ -79,16 +77,6 @@ public interface JSONTrait {
     return builder.toString();
   }
 
-  private static Object invokeValue(Object object, MethodHandle getter) {
-    try {
-      return getter.invokeExact(object);
-    } catch(RuntimeException | Error e) {
-      throw e;
-    } catch (Throwable t) {
-      throw new UndeclaredThrowableException(t);
-    }
-  }
-
   private static void toJSON(StringBuilder builder, Object o, String linePrefix, String lineIndent, String lineSeparator) {
     if (o instanceof Record record) {
       toJSONRecord(builder, record, linePrefix, lineIndent, lineSeparator);
@@ -102,17 +90,18 @@ public interface JSONTrait {
   }
 
   private static void toJSONRecord(StringBuilder builder, Object record, String linePrefix, String lineIndent, String lineSeparator) {
-    var shape = TraitImpl.mapShape(record.getClass());
+    var shape = TraitImpl.recordShape(record.getClass());
+    var values = new Object[shape.size()];
+    shape.copyTo(record, values, 0);
     builder.append('{');
     var separator = "";
     var innerLinePrefix = linePrefix + lineIndent;
-    for(var i = 0; i < shape.size(); i++) {
+    for(var i = 0; i < values.length; i++) {
       var key = shape.getKey(i);
-      var value = shape.getValue(i);
       builder.append(separator)
           .append(lineSeparator).append(innerLinePrefix)
           .append('"').append(key).append("\": ");
-      toJSON(builder, invokeValue(record, value), innerLinePrefix, lineIndent, lineSeparator);
+      toJSON(builder, values[i], innerLinePrefix, lineIndent, lineSeparator);
       separator = lineSeparator.isEmpty()? ", ": ",";
     }
     builder.append(lineSeparator).append(linePrefix).append('}');
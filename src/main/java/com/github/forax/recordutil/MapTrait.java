@@ -1,19 +1,25 @@
 package com.github.forax.recordutil;
 
+import java.io.IOException;
 import java.lang.invoke.MethodHandle;
-import java.lang.reflect.UndeclaredThrowableException;
 import java.util.AbstractList;
 import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
-import java.util.StringJoiner;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+import static java.util.Objects.requireNonNull;
 
 /**
  * An interface that provides an implementation for all methods of an unmodifiable {@link Map}
@@ -70,13 +76,546 @@ import java.util.function.Function;
  * a {@link java.util.Collection}.
  */
 public interface MapTrait extends java.util.Map<String, Object> {
+  /**
+   * A record component of a record class, resolved once.
+   *
+   * Unlike {@link #get(Object)} that finds the record component from its name at each call,
+   * a {@code Component} is created once, by example in a static final field,
+   * and can be used to read the value of the record component of several records.
+   * <pre>
+   *   private static final MapTrait.Component&lt;Person&gt; AGE = MapTrait.component(Person.class, "age");
+   *   ...
+   *   int age = AGE.getInt(person);
+   *   int sum = persons.stream().mapToInt(AGE.asToIntFunction()).sum();
+   * </pre>
+   *
+   * @param <R> the type of the record
+   *
+   * @see #component(Class, String)
+   */
+  interface Component<R> {
+    /**
+     * Returns the name of the record component.
+     * @return the name of the record component
+     */
+    String name();
+
+    /**
+     * Returns the index of the record component in the record components order.
+     * @return the index of the record component
+     */
+    int index();
+
+    /**
+     * Returns the type of the record component.
+     * @return the type of the record component
+     */
+    Class<?> type();
+
+    /**
+     * Returns the accessor of the record component as a method handle
+     * typed with the record class as parameter type and the record component type as return type.
+     * @return the accessor of the record component as a method handle
+     */
+    MethodHandle getter();
+
+    /**
+     * Returns the value of the record component of a record.
+     *
+     * @param record a record instance
+     * @return the value of the record component, boxed if the record component type is a primitive type
+     *
+     * @throws NullPointerException if {@code record} is null
+     * @throws ClassCastException if {@code record} is not an instance of the record class
+     */
+    Object get(R record);
+
+    /**
+     * Returns the value of the record component of a record as an int.
+     *
+     * @param record a record instance
+     * @return the value of the record component as an int
+     *
+     * @throws NullPointerException if {@code record} is null
+     * @throws ClassCastException if {@code record} is not an instance of the record class or
+     *         if the record component type can not be converted to an int
+     */
+    int getInt(R record);
+
+    /**
+     * Returns the value of the record component of a record as a long.
+     *
+     * @param record a record instance
+     * @return the value of the record component as a long
+     *
+     * @throws NullPointerException if {@code record} is null
+     * @throws ClassCastException if {@code record} is not an instance of the record class or
+     *         if the record component type can not be converted to a long
+     */
+    long getLong(R record);
+
+    /**
+     * Returns the value of the record component of a record as a double.
+     *
+     * @param record a record instance
+     * @return the value of the record component as a double
+     *
+     * @throws NullPointerException if {@code record} is null
+     * @throws ClassCastException if {@code record} is not an instance of the record class or
+     *         if the record component type can not be converted to a double
+     */
+    double getDouble(R record);
+
+    /**
+     * Returns the value of the record component of a record as a boolean.
+     *
+     * @param record a record instance
+     * @return the value of the record component as a boolean
+     *
+     * @throws NullPointerException if {@code record} is null
+     * @throws ClassCastException if {@code record} is not an instance of the record class or
+     *         if the record component type can not be converted to a boolean
+     */
+    boolean getBoolean(R record);
+
+    /**
+     * Returns a function that returns the value of the record component of a record.
+     * @return a function that calls {@link #get(Object)}
+     */
+    default Function<R, Object> asFunction() {
+      return this::get;
+    }
+
+    /**
+     * Returns a function that returns the value of the record component of a record as an int.
+     * @return a function that calls {@link #getInt(Object)}
+     */
+    default ToIntFunction<R> asToIntFunction() {
+      return this::getInt;
+    }
+
+    /**
+     * Returns a function that returns the value of the record component of a record as a long.
+     * @return a function that calls {@link #getLong(Object)}
+     */
+    default ToLongFunction<R> asToLongFunction() {
+      return this::getLong;
+    }
+
+    /**
+     * Returns a function that returns the value of the record component of a record as a double.
+     * @return a function that calls {@link #getDouble(Object)}
+     */
+    default ToDoubleFunction<R> asToDoubleFunction() {
+      return this::getDouble;
+    }
+
+    /**
+     * Returns a predicate that returns the value of the record component of a record as a boolean.
+     * @return a predicate that calls {@link #getBoolean(Object)}
+     */
+    default Predicate<R> asPredicate() {
+      return this::getBoolean;
+    }
+  }
+
+  /**
+   * Returns a record component of a record class from its name.
+   *
+   * @param recordType the class of the record
+   * @param name the name of a record component
+   * @param <R> the type of the record
+   * @return a record component of the record class
+   *
+   * @throws NullPointerException if {@code recordType} or {@code name} is null
+   * @throws IllegalArgumentException if {@code name} is not the name of a record component of the record
+   */
+  static <R extends Record> Component<R> component(Class<R> recordType, String name) {
+    requireNonNull(recordType, "recordType is null");
+    requireNonNull(name, "name is null");
+    return MapTraitImpl.ComponentImpl.of(recordType, name);
+  }
+
+  /**
+   * A projection of a record class on some of its record components,
+   * applied on a record, it returns an unmodifiable map view that only contains those record components.
+   *
+   * A projection is created once, by example in a static final field, and applied on several records,
+   * the map returned by {@link #apply(Object)} is a view, the values are not copied.
+   * <pre>
+   *   private static final MapTrait.Projection&lt;Person&gt; SUMMARY = MapTrait.projection(Person.class, "name", "age");
+   *   ...
+   *   Map&lt;String, Object&gt; summary = SUMMARY.apply(person);
+   * </pre>
+   *
+   * @param <R> the type of the record
+   *
+   * @see #projection(Class, String...)
+   */
+  interface Projection<R> extends Function<R, Map<String, Object>> {
+    /**
+     * Returns the keys of the projection, in the order of the projection.
+     * @return an unmodifiable list of the keys of the projection
+     */
+    List<String> keys();
+
+    /**
+     * Returns an unmodifiable map view of a record that only contains the keys of the projection,
+     * in the order of the projection.
+     *
+     * @param record a record instance
+     * @return an unmodifiable map view of a record
+     *
+     * @throws NullPointerException if {@code record} is null
+     * @throws ClassCastException if {@code record} is not an instance of the record class
+     */
+    @Override
+    Map<String, Object> apply(R record);
+  }
+
+  /**
+   * A mutable map initialized with the values of the record components of a record
+   * that can be converted back to a record.
+   *
+   * The map is backed by the record, only the values that are changed are stored in the map,
+   * the record itself is never modified.
+   * The keys of the map are the names of the record components, so a value can be changed
+   * but a key can not be added or removed.
+   * <pre>
+   *   var overlay = person.overlay();
+   *   overlay.put("age", 43);
+   *   var older = (Person) overlay.toRecord();
+   * </pre>
+   *
+   * An overlay is not thread safe.
+   *
+   * @see #overlay()
+   */
+  interface Overlay extends Map<String, Object> {
+    /**
+     * Creates a new record with the values of the map by calling the canonical constructor once.
+     * If no value has been changed, the record used to create the overlay is returned.
+     *
+     * @return a record with the values of the map
+     */
+    Record toRecord();
+
+    /**
+     * Changes the value associated to a key.
+     *
+     * @param key the name of a record component
+     * @param value the new value of the record component
+     * @return the previous value of the record component
+     *
+     * @throws NullPointerException if {@code key} is null or if {@code value} is null
+     *         and the record component type is a primitive type
+     * @throws IllegalArgumentException if {@code key} is not the name of a record component
+     * @throws ClassCastException if the class of {@code value} is not compatible with
+     *         the record component type
+     */
+    @Override
+    Object put(String key, Object value);
+  }
+
+  /**
+   * Creates a record from the values of a map, the keys of the map are the names of the record components.
+   *
+   * The map is iterated once, if the iteration order of the map is the order of the record components,
+   * the keys are matched without using the hash table of the record class.
+   * If the map is a {@code MapTrait}, the values are read directly from the record,
+   * if the map is a record of the record class, the map is returned.
+   *
+   * A record component that has no corresponding key is initialized with null.
+   *
+   * @param map a map associating the names of the record components to their values
+   * @param recordType the class of the record
+   * @param <R> the type of the record
+   * @return a new record initialized with the values of the map
+   *
+   * @throws NullPointerException if {@code map} or {@code recordType} is null,
+   *         or if a record component has a primitive type and its value is null or missing
+   * @throws IllegalArgumentException if a key of the map is not the name of a record component
+   * @throws ClassCastException if a value is not compatible with the type of its record component
+   */
+  static <R extends Record> R toRecord(Map<String, ?> map, Class<R> recordType) {
+    requireNonNull(map, "map is null");
+    requireNonNull(recordType, "recordType is null");
+    return recordType.cast(MapTraitImpl.toRecord(map, recordType));
+  }
+
+  /**
+   * Returns a projection of a record class on some record components.
+   *
+   * @param recordType the class of the record
+   * @param keys the names of the record components of the projection
+   * @param <R> the type of the record
+   * @return a projection of the record class
+   *
+   * @throws NullPointerException if {@code recordType}, {@code keys} or one of the keys is null
+   * @throws IllegalArgumentException if a key is not the name of a record component or if a key is repeated
+   */
+  static <R extends Record> Projection<R> projection(Class<R> recordType, String... keys) {
+    requireNonNull(recordType, "recordType is null");
+    requireNonNull(keys, "keys is null");
+    return MapTraitImpl.ProjectionImpl.of(recordType, keys);
+  }
+
+  /**
+   * A path of record component names separated by dots, resolved once,
+   * that reads the value of a record component of records nested inside a record.
+   *
+   * By example, with the records
+   * <pre>
+   *   record City(String name, int zip) {}
+   *   record Address(String street, City city) {}
+   *   record Person(String name, Address address) implements MapTrait {}
+   *   ...
+   *   private static final MapTrait.Path&lt;Person&gt; ZIP = MapTrait.path(Person.class, "address.city.zip");
+   *   ...
+   *   int zip = ZIP.getInt(person);
+   * </pre>
+   *
+   * If a record in the middle of the path is null, the value of the path is null.
+   * In that case, if the type of the last record component is a primitive type,
+   * the value is boxed.
+   *
+   * @param <R> the type of the record
+   *
+   * @see #path(Class, String)
+   */
+  interface Path<R> {
+    /**
+     * Returns the path as a string.
+     * @return the path as a string
+     */
+    String path();
+
+    /**
+     * Returns the type of the value of the path, the type of the last record component of the path
+     * or its wrapper type if the path has more than one record component and the type is a primitive type.
+     * @return the type of the value of the path
+     */
+    Class<?> type();
+
+    /**
+     * Returns the accessor of the path as a method handle
+     * typed with the record class as parameter type and {@link #type()} as return type.
+     * @return the accessor of the path as a method handle
+     */
+    MethodHandle getter();
+
+    /**
+     * Returns the value of the path for a record.
+     *
+     * @param record a record instance
+     * @return the value of the path, boxed if the type of the path is a primitive type
+     *
+     * @throws NullPointerException if {@code record} is null
+     * @throws ClassCastException if {@code record} is not an instance of the record class
+     */
+    Object get(R record);
+
+    /**
+     * Returns the value of the path for a record as an int.
+     *
+     * @param record a record instance
+     * @return the value of the path as an int
+     *
+     * @throws NullPointerException if {@code record} is null or if the value of the path is null
+     * @throws ClassCastException if {@code record} is not an instance of the record class or
+     *         if the type of the path can not be converted to an int
+     */
+    int getInt(R record);
+
+    /**
+     * Returns the value of the path for a record as a long.
+     *
+     * @param record a record instance
+     * @return the value of the path as a long
+     *
+     * @throws NullPointerException if {@code record} is null or if the value of the path is null
+     * @throws ClassCastException if {@code record} is not an instance of the record class or
+     *         if the type of the path can not be converted to a long
+     */
+    long getLong(R record);
+
+    /**
+     * Returns the value of the path for a record as a double.
+     *
+     * @param record a record instance
+     * @return the value of the path as a double
+     *
+     * @throws NullPointerException if {@code record} is null or if the value of the path is null
+     * @throws ClassCastException if {@code record} is not an instance of the record class or
+     *         if the type of the path can not be converted to a double
+     */
+    double getDouble(R record);
+
+    /**
+     * Returns the value of the path for a record as a boolean.
+     *
+     * @param record a record instance
+     * @return the value of the path as a boolean
+     *
+     * @throws NullPointerException if {@code record} is null or if the value of the path is null
+     * @throws ClassCastException if {@code record} is not an instance of the record class or
+     *         if the type of the path can not be converted to a boolean
+     */
+    boolean getBoolean(R record);
+
+    /**
+     * Returns a function that returns the value of the path for a record.
+     * @return a function that calls {@link #get(Object)}
+     */
+    default Function<R, Object> asFunction() {
+      return this::get;
+    }
+  }
+
+  /**
+   * Returns a path of record component names separated by dots, each name except the last one
+   * has to be the name of a record component typed by a record.
+   *
+   * @param recordType the class of the record
+   * @param path record component names separated by dots
+   * @param <R> the type of the record
+   * @return a path that reads the value of nested records
+   *
+   * @throws NullPointerException if {@code recordType} or {@code path} is null
+   * @throws IllegalArgumentException if a name is not the name of a record component or
+   *         if a record component in the middle of the path is not typed by a record
+   */
+  static <R extends Record> Path<R> path(Class<R> recordType, String path) {
+    requireNonNull(recordType, "recordType is null");
+    requireNonNull(path, "path is null");
+    return MapTraitImpl.PathImpl.of(recordType, path);
+  }
+
+  /**
+   * A mutable cursor on the record components of a record that does not allocate
+   * while iterating.
+   *
+   * A cursor is created by {@link #cursor()} and can be reused to iterate on several records
+   * by calling {@link #reset(MapTrait)}.
+   * <pre>
+   *   MapTrait.Cursor cursor = null;
+   *   for(var record: records) {
+   *     cursor = cursor == null? record.cursor(): cursor.reset(record);
+   *     while(cursor.next()) {
+   *       exporter.export(cursor.key(), cursor.getDouble());
+   *     }
+   *   }
+   * </pre>
+   *
+   * Before the first call to {@link #next()} and after {@link #next()} returns {@code false},
+   * the cursor is not on a record component and the methods that access the current
+   * record component throw an {@link IllegalStateException}.
+   *
+   * A cursor is not thread safe.
+   */
+  interface Cursor {
+    /**
+     * Changes the record the cursor iterates on, the cursor is positioned before the first record component.
+     *
+     * @param record the new record
+     * @return this cursor
+     *
+     * @throws NullPointerException if {@code record} is null
+     */
+    Cursor reset(MapTrait record);
+
+    /**
+     * Moves the cursor to the next record component.
+     *
+     * @return true if the cursor is on a record component, false if there is no more record component
+     */
+    boolean next();
+
+    /**
+     * Returns the index of the current record component.
+     * @return the index of the current record component
+     * @throws IllegalStateException if the cursor is not on a record component
+     */
+    int index();
+
+    /**
+     * Returns the name of the current record component.
+     * @return the name of the current record component
+     * @throws IllegalStateException if the cursor is not on a record component
+     */
+    String key();
+
+    /**
+     * Returns the type of the current record component.
+     * @return the type of the current record component
+     * @throws IllegalStateException if the cursor is not on a record component
+     */
+    Class<?> type();
+
+    /**
+     * Returns the value of the current record component.
+     * @return the value of the current record component, boxed if the record component type is a primitive type
+     * @throws IllegalStateException if the cursor is not on a record component
+     */
+    Object value();
+
+    /**
+     * Returns the value of the current record component as an int.
+     * @return the value of the current record component as an int
+     * @throws IllegalStateException if the cursor is not on a record component
+     * @throws ClassCastException if the record component type can not be converted to an int
+     */
+    int getInt();
+
+    /**
+     * Returns the value of the current record component as a long.
+     * @return the value of the current record component as a long
+     * @throws IllegalStateException if the cursor is not on a record component
+     * @throws ClassCastException if the record component type can not be converted to a long
+     */
+    long getLong();
+
+    /**
+     * Returns the value of the current record component as a double.
+     * @return the value of the current record component as a double
+     * @throws IllegalStateException if the cursor is not on a record component
+     * @throws ClassCastException if the record component type can not be converted to a double
+     */
+    double getDouble();
+
+    /**
+     * Returns the value of the current record component as a boolean.
+     * @return the value of the current record component as a boolean
+     * @throws IllegalStateException if the cursor is not on a record component
+     * @throws ClassCastException if the record component type can not be converted to a boolean
+     */
+    boolean getBoolean();
+  }
+
+  /**
+   * An operation that takes the index, the name and the value of a record component.
+   *
+   * @see #forEachIndexed(IndexedConsumer)
+   */
+  @FunctionalInterface
+  interface IndexedConsumer {
+    /**
+     * Performs this operation on a record component.
+     *
+     * @param index the index of the record component
+     * @param key the name of the record component
+     * @param value the value of the record component
+     */
+    void accept(int index, String key, Object value);
+  }
+
   @Override
   default int size() {
-    return TraitImpl.mapShape(getClass()).size();
+    return TraitImpl.recordShape(getClass()).size();
   }
   @Override
   default boolean isEmpty() {
-    return TraitImpl.mapShape(getClass()).isEmpty();
+    return TraitImpl.recordShape(getClass()).isEmpty();
   }
 
   @Override
@@ -88,22 +627,147 @@ public interface MapTrait extends java.util.Map<String, Object> {
     if (!(key instanceof String s)) {
       return defaultValue;
     }
-    var shape = TraitImpl.mapShape(getClass());
-    var getter = shape.getValue(s);
-    if (getter == null) {
-      return defaultValue;
-    }
-    return invokeValue(getter);
+    return TraitImpl.recordShape(getClass()).get(this, s, defaultValue);
+  }
+
+  /**
+   * Returns the value of a record component as an int without boxing it.
+   *
+   * @param key the name of a record component
+   * @return the value of the record component as an int
+   *
+   * @throws NullPointerException if {@code key} is null
+   * @throws IllegalArgumentException if {@code key} is not the name of a record component
+   * @throws ClassCastException if the record component type can not be converted to an int
+   *
+   * @see #getInt(int)
+   */
+  default int getInt(String key) {
+    return componentOf(key).getInt(this);
   }
 
-  private Object invokeValue(MethodHandle getter) {
-    try {
-      return getter.invokeExact((Object) this);
-    } catch(RuntimeException | Error e) {
-      throw e;
-    } catch (Throwable t) {
-      throw new UndeclaredThrowableException(t);
+  /**
+   * Returns the value of a record component as a long without boxing it.
+   *
+   * @param key the name of a record component
+   * @return the value of the record component as a long
+   *
+   * @throws NullPointerException if {@code key} is null
+   * @throws IllegalArgumentException if {@code key} is not the name of a record component
+   * @throws ClassCastException if the record component type can not be converted to a long
+   *
+   * @see #getLong(int)
+   */
+  default long getLong(String key) {
+    return componentOf(key).getLong(this);
+  }
+
+  /**
+   * Returns the value of a record component as a double without boxing it.
+   *
+   * @param key the name of a record component
+   * @return the value of the record component as a double
+   *
+   * @throws NullPointerException if {@code key} is null
+   * @throws IllegalArgumentException if {@code key} is not the name of a record component
+   * @throws ClassCastException if the record component type can not be converted to a double
+   *
+   * @see #getDouble(int)
+   */
+  default double getDouble(String key) {
+    return componentOf(key).getDouble(this);
+  }
+
+  /**
+   * Returns the value of a record component as a boolean without boxing it.
+   *
+   * @param key the name of a record component
+   * @return the value of the record component as a boolean
+   *
+   * @throws NullPointerException if {@code key} is null
+   * @throws IllegalArgumentException if {@code key} is not the name of a record component
+   * @throws ClassCastException if the record component type can not be converted to a boolean
+   *
+   * @see #getBoolean(int)
+   */
+  default boolean getBoolean(String key) {
+    return componentOf(key).getBoolean(this);
+  }
+
+  private Component<Object> componentOf(String key) {
+    requireNonNull(key, "key is null");
+    var shape = TraitImpl.recordShape(getClass());
+    var slot = shape.getSlot(key);
+    if (slot == -1) {
+      throw new IllegalArgumentException("unknown key " + key + " for record " + getClass().getName());
     }
+    return shape.component(slot);
+  }
+
+  /**
+   * Returns the value of a record component as an int without boxing it.
+   *
+   * @param index the index of a record component in the record components order
+   * @return the value of the record component as an int
+   *
+   * @throws IndexOutOfBoundsException if {@code index} is not a valid index
+   * @throws ClassCastException if the record component type can not be converted to an int
+   *
+   * @see #getInt(String)
+   */
+  default int getInt(int index) {
+    return componentOf(index).getInt(this);
+  }
+
+  /**
+   * Returns the value of a record component as a long without boxing it.
+   *
+   * @param index the index of a record component in the record components order
+   * @return the value of the record component as a long
+   *
+   * @throws IndexOutOfBoundsException if {@code index} is not a valid index
+   * @throws ClassCastException if the record component type can not be converted to a long
+   *
+   * @see #getLong(String)
+   */
+  default long getLong(int index) {
+    return componentOf(index).getLong(this);
+  }
+
+  /**
+   * Returns the value of a record component as a double without boxing it.
+   *
+   * @param index the index of a record component in the record components order
+   * @return the value of the record component as a double
+   *
+   * @throws IndexOutOfBoundsException if {@code index} is not a valid index
+   * @throws ClassCastException if the record component type can not be converted to a double
+   *
+   * @see #getDouble(String)
+   */
+  default double getDouble(int index) {
+    return componentOf(index).getDouble(this);
+  }
+
+  /**
+   * Returns the value of a record component as a boolean without boxing it.
+   *
+   * @param index the index of a record component in the record components order
+   * @return the value of the record component as a boolean
+   *
+   * @throws IndexOutOfBoundsException if {@code index} is not a valid index
+   * @throws ClassCastException if the record component type can not be converted to a boolean
+   *
+   * @see #getBoolean(String)
+   */
+  default boolean getBoolean(int index) {
+    return componentOf(index).getBoolean(this);
+  }
+
+  private Component<Object> componentOf(int index) {
+    var shape = TraitImpl.recordShape(getClass());
+    Objects.checkIndex(index, shape.size());
+    return shape.component(index);
   }
 
   @Override
@@ -111,16 +775,15 @@ public interface MapTrait extends java.util.Map<String, Object> {
     if (!(key instanceof String s)) {
       return false;
     }
-    var shape = TraitImpl.mapShape(getClass());
+    var shape = TraitImpl.recordShape(getClass());
     return shape.containsKey(s);
   }
 
   @Override
   default boolean containsValue(Object value) {
-    var shape = TraitImpl.mapShape(getClass());
+    var shape = TraitImpl.recordShape(getClass());
     for(var i = 0; i < shape.size(); i++) {
-      var getter = shape.getValue(i);
-      if (Objects.equals(invokeValue(getter), value)) {
+      if (Objects.equals(shape.get(this, i), value)) {
         return true;
       }
     }
@@ -204,10 +867,31 @@ public interface MapTrait extends java.util.Map<String, Object> {
   }
 
   private boolean equalsOfMap(Map<?,?> map) {
-    var shape = TraitImpl.mapShape(getClass());
+    if (map == this) {
+      return true;
+    }
+    var shape = TraitImpl.recordShape(getClass());
+    if (map.size() != shape.size()) {
+      return false;
+    }
+    if (map.getClass() == getClass()) {
+      return MapTraitImpl.equalsSameClass(this, map);
+    }
+    if (map instanceof MapTrait other) {
+      var otherShape = TraitImpl.recordShape(other.getClass());
+      if (Arrays.equals(shape.keys(), otherShape.keys())) {
+        for(var i = 0; i < shape.size(); i++) {
+          if (!Objects.equals(shape.get(this, i), otherShape.get(other, i))) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }
     for(var i = 0; i < shape.size(); i++) {
-      var value = map.get(shape.getKey(i));
-      if (!Objects.equals(invokeValue(shape.getValue(i)), value)) {
+      var key = shape.getKey(i);
+      var value = map.get(key);
+      if (!Objects.equals(shape.get(this, i), value) || (value == null && !map.containsKey(key))) {
         return false;
       }
     }
@@ -228,13 +912,7 @@ public interface MapTrait extends java.util.Map<String, Object> {
    * @see Map#hashCode()
    */
   default int hashCodeOfMap() {
-    var shape = TraitImpl.mapShape(getClass());
-    var h = 0;
-    for (var i = 0; i < shape.size(); i++) {
-      var value = invokeValue(shape.getValue(i));
-      h += shape.getKey(i).hashCode() ^ Objects.hashCode(value);
-    }
-    return h;
+    return MapTraitImpl.hashCodeOfMap(this);
   }
 
   /**
@@ -253,22 +931,84 @@ public interface MapTrait extends java.util.Map<String, Object> {
    * @see Map#toString()
    */
   default String toStringOfMap() {
-    var shape = TraitImpl.mapShape(getClass());
-    var joiner = new StringJoiner(", ", "{", "}");
-    for (var i = 0; i < shape.size(); i++) {
-      joiner.add(shape.getKey(i) + "=" + invokeValue(shape.getValue(i)));
-    }
-    return joiner.toString();
+    return MapTraitImpl.toStringOfMap(this);
+  }
+
+  /**
+   * Appends the string representation of this map, the one returned by {@link #toStringOfMap()},
+   * to a {@link StringBuilder}.
+   * The values of primitive record components are appended without being boxed.
+   *
+   * @param builder the StringBuilder to append to
+   * @return the StringBuilder
+   *
+   * @throws NullPointerException if {@code builder} is null
+   *
+   * @see #appendMapTo(Appendable)
+   */
+  default StringBuilder appendMapTo(StringBuilder builder) {
+    requireNonNull(builder, "builder is null");
+    return MapTraitImpl.appendMapTo(this, builder);
+  }
+
+  /**
+   * Appends the string representation of this map, the one returned by {@link #toStringOfMap()},
+   * to an {@link Appendable}.
+   *
+   * @param appendable the Appendable to append to
+   * @param <A> the type of the Appendable
+   * @return the Appendable
+   *
+   * @throws NullPointerException if {@code appendable} is null
+   * @throws IOException if the Appendable throws an IOException
+   *
+   * @see #appendMapTo(StringBuilder)
+   */
+  default <A extends Appendable> A appendMapTo(A appendable) throws IOException {
+    requireNonNull(appendable, "appendable is null");
+    MapTraitImpl.appendMapTo(this, appendable);
+    return appendable;
   }
 
   @Override
   default void forEach(BiConsumer<? super String, ? super Object> action) {
-    var shape = TraitImpl.mapShape(getClass());
-    for (var i = 0; i < shape.size(); i++) {
-      action.accept(shape.getKey(i), invokeValue(shape.getValue(i)));
+    var shape = TraitImpl.recordShape(getClass());
+    var values = new Object[shape.size()];
+    shape.copyTo(this, values, 0);
+    for (var i = 0; i < values.length; i++) {
+      action.accept(shape.getKey(i), values[i]);
+    }
+  }
+
+  /**
+   * Performs an action for each record component, in the order of the record components,
+   * with its index, its name and its value.
+   * The index can be used to get the value without boxing using by example {@link #getInt(int)}.
+   *
+   * @param action the action to perform
+   *
+   * @throws NullPointerException if {@code action} is null
+   */
+  default void forEachIndexed(IndexedConsumer action) {
+    requireNonNull(action, "action is null");
+    var shape = TraitImpl.recordShape(getClass());
+    var values = new Object[shape.size()];
+    shape.copyTo(this, values, 0);
+    for (var i = 0; i < values.length; i++) {
+      action.accept(i, shape.getKey(i), values[i]);
     }
   }
 
+  /**
+   * Returns a new cursor on the record components of this record.
+   * The cursor can be reused on other records using {@link Cursor#reset(MapTrait)}.
+   *
+   * @return a new cursor positioned before the first record component of this record
+   */
+  default Cursor cursor() {
+    return new MapTraitImpl.CursorImpl().reset(this);
+  }
+
   /**
    * Returns an unmodifiable {@link Set} view of the mappings contained in this map.
    *
@@ -276,7 +1016,7 @@ public interface MapTrait extends java.util.Map<String, Object> {
    */
   @Override
   default Set<Entry<String, Object>> entrySet() {
-    var shape = TraitImpl.mapShape(getClass());
+    var shape = TraitImpl.recordShape(getClass());
     return new AbstractSet<>() {
       @Override
       public int size() {
@@ -298,7 +1038,7 @@ public interface MapTrait extends java.util.Map<String, Object> {
             if (!hasNext()) {
               throw new NoSuchElementException();
             }
-            return Map.entry(shape.getKey(index), invokeValue(shape.getValue(index++)));
+            return Map.entry(shape.getKey(index), shape.get(MapTrait.this, index++));
           }
         };
       }
@@ -320,7 +1060,7 @@ public interface MapTrait extends java.util.Map<String, Object> {
    */
   @Override
   default Set<String> keySet() {
-    var shape =  TraitImpl.mapShape(getClass());
+    var shape =  TraitImpl.recordShape(getClass());
     return new AbstractSet<>() {
       @Override
       public int size() {
@@ -361,7 +1101,7 @@ public interface MapTrait extends java.util.Map<String, Object> {
    */
   @Override
   default List<Object> values() {
-    var shape =  TraitImpl.mapShape(getClass());
+    var shape =  TraitImpl.recordShape(getClass());
     return new AbstractList<>() {
       @Override
       public int size() {
@@ -371,7 +1111,7 @@ public interface MapTrait extends java.util.Map<String, Object> {
       @Override
       public Object get(int index) {
         Objects.checkIndex(index, shape.size());
-        return invokeValue(shape.getValue(index));
+        return shape.get(MapTrait.this, index);
       }
     };
   }
@@ -382,7 +1122,7 @@ public interface MapTrait extends java.util.Map<String, Object> {
    * @return an unmodifiable list of the keys contained in this map
    */
   default List<String> keys() {
-    var shape =  TraitImpl.mapShape(getClass());
+    var shape =  TraitImpl.recordShape(getClass());
     return new AbstractList<>() {
       @Override
       public int size() {
@@ -402,6 +1142,188 @@ public interface MapTrait extends java.util.Map<String, Object> {
     };
   }
 
+  /**
+   * Returns an immutable map containing the values of the record components of this record.
+   *
+   * The values are read once when this method is called and stored in an array,
+   * so unlike the methods of this record, calling {@link Map#get(Object)} or iterating on the map
+   * returned does not call the record accessors again.
+   * The map returned shares the keys with all the other maps of the same record class,
+   * the iteration order is the order of the record components.
+   * Unlike {@link Map#copyOf(Map)}, the values can be null.
+   *
+   * @return an immutable map containing the values of the record components of this record
+   */
+  default Map<String, Object> snapshot() {
+    return MapTraitImpl.Snapshot.of(this);
+  }
+
+  /**
+   * Copies the values of all the record components into an array, in the order of the record components.
+   * The values of primitive record components are boxed.
+   *
+   * @param dst the destination array
+   * @param offset the index of the first value in the destination array
+   * @return the number of values copied
+   *
+   * @throws NullPointerException if {@code dst} is null
+   * @throws IndexOutOfBoundsException if the destination array is too small
+   * @throws ArrayStoreException if a value can not be stored in the destination array
+   */
+  default int copyValuesTo(Object[] dst, int offset) {
+    requireNonNull(dst, "dst is null");
+    var shape = TraitImpl.recordShape(getClass());
+    Objects.checkFromIndexSize(offset, shape.size(), dst.length);
+    shape.copyTo(this, dst, offset);
+    return shape.size();
+  }
+
+  /**
+   * Copies the values of the record components typed as int into an array,
+   * in the order of the record components.
+   * The other record components are skipped.
+   *
+   * @param dst the destination array
+   * @param offset the index of the first value in the destination array
+   * @return the number of values copied
+   *
+   * @throws NullPointerException if {@code dst} is null
+   * @throws IndexOutOfBoundsException if the destination array is too small
+   */
+  default int copyIntsTo(int[] dst, int offset) {
+    requireNonNull(dst, "dst is null");
+    var shape = TraitImpl.recordShape(getClass());
+    var count = MapTraitImpl.count(shape, int.class);
+    Objects.checkFromIndexSize(offset, count, dst.length);
+    for(var i = 0; i < shape.size(); i++) {
+      if (shape.getType(i) == int.class) {
+        dst[offset++] = shape.component(i).getInt(this);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Copies the values of the record components typed as long into an array,
+   * in the order of the record components.
+   * The other record components are skipped.
+   *
+   * @param dst the destination array
+   * @param offset the index of the first value in the destination array
+   * @return the number of values copied
+   *
+   * @throws NullPointerException if {@code dst} is null
+   * @throws IndexOutOfBoundsException if the destination array is too small
+   */
+  default int copyLongsTo(long[] dst, int offset) {
+    requireNonNull(dst, "dst is null");
+    var shape = TraitImpl.recordShape(getClass());
+    var count = MapTraitImpl.count(shape, long.class);
+    Objects.checkFromIndexSize(offset, count, dst.length);
+    for(var i = 0; i < shape.size(); i++) {
+      if (shape.getType(i) == long.class) {
+        dst[offset++] = shape.component(i).getLong(this);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Copies the values of the record components typed as double into an array,
+   * in the order of the record components.
+   * The other record components are skipped.
+   *
+   * @param dst the destination array
+   * @param offset the index of the first value in the destination array
+   * @return the number of values copied
+   *
+   * @throws NullPointerException if {@code dst} is null
+   * @throws IndexOutOfBoundsException if the destination array is too small
+   */
+  default int copyDoublesTo(double[] dst, int offset) {
+    requireNonNull(dst, "dst is null");
+    var shape = TraitImpl.recordShape(getClass());
+    var count = MapTraitImpl.count(shape, double.class);
+    Objects.checkFromIndexSize(offset, count, dst.length);
+    for(var i = 0; i < shape.size(); i++) {
+      if (shape.getType(i) == double.class) {
+        dst[offset++] = shape.component(i).getDouble(this);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Copies the values of the record components of several records of the same record class
+   * into column arrays, one array per record component.
+   *
+   * The array {@code columns[i]} receives the values of the i-th record component,
+   * the value of the j-th record is stored at the index j.
+   * If the record component type is a primitive type, the column has to be an array of that
+   * primitive type (an {@code int[]} for an {@code int}), otherwise it has to be an array
+   * of the record component type or of a super type (a {@code String[]} or an {@code Object[]}
+   * for a {@code String}).
+   * A column can be null, in that case the corresponding record component is skipped.
+   * The records and the columns are checked before any value is written.
+   * <pre>
+   *   record Point(int x, double y) implements MapTrait {}
+   *   ...
+   *   var xs = new int[points.size()];
+   *   var ys = new double[points.size()];
+   *   MapTrait.copyColumnsTo(points, xs, ys);
+   * </pre>
+   *
+   * @param records a list of records of the same record class
+   * @param columns the columns, one per record component
+   *
+   * @throws NullPointerException if {@code records}, {@code columns} or a record is null
+   * @throws IllegalArgumentException if the records are not of the same class,
+   *         if the number of columns is not the number of record components or
+   *         if a column is not an array of the corresponding record component type
+   * @throws IndexOutOfBoundsException if a column is smaller than the number of records
+   */
+  static void copyColumnsTo(List<? extends MapTrait> records, Object... columns) {
+    requireNonNull(records, "records is null");
+    requireNonNull(columns, "columns is null");
+    MapTraitImpl.copyColumnsTo(records, columns);
+  }
+
+  /**
+   * Returns an unmodifiable map view of this record where the record components typed by a record
+   * are replaced by their own record components, recursively, with the names joined by dots.
+   * <pre>
+   *   record City(String name, int zip) {}
+   *   record Address(String street, City city) {}
+   *   record Person(String name, Address address) implements MapTrait {}
+   *   ...
+   *   var person = new Person("Bob", new Address("Main street", new City("Paris", 75000)));
+   *   person.flatten()  // {name=Bob, address.street=Main street, address.city.name=Paris, address.city.zip=75000}
+   * </pre>
+   *
+   * The keys and the getters are computed once per record class, the values are not copied.
+   * If a nested record is null, the values of all its record components are null.
+   * A record class that contains itself, directly or indirectly, is not flattened inside itself.
+   *
+   * @return an unmodifiable flattened map view of this record
+   *
+   * @see #path(Class, String)
+   */
+  default Map<String, Object> flatten() {
+    return MapTraitImpl.flatten(this);
+  }
+
+  /**
+   * Returns a new mutable map initialized with the values of the record components of this record.
+   * Calling {@link Overlay#toRecord()} on the returned map creates a record with the changed values.
+   *
+   * @return a new mutable map backed by this record
+   *
+   * @see Overlay
+   */
+  default Overlay overlay() {
+    return new MapTraitImpl.OverlayImpl(TraitImpl.recordShape(getClass()), this);
+  }
+
   @Override
   default void clear() {
     throw new UnsupportedOperationException();
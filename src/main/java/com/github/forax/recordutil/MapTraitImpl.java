@@ -0,0 +1,1390 @@
+package com.github.forax.recordutil;
+
+import com.github.forax.recordutil.TraitImpl.KeyTable;
+import com.github.forax.recordutil.TraitImpl.RecordShape;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.StringConcatException;
+import java.lang.invoke.StringConcatFactory;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.Array;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+import static java.lang.invoke.MethodHandles.collectArguments;
+import static java.lang.invoke.MethodHandles.constant;
+import static java.lang.invoke.MethodHandles.dropArguments;
+import static java.lang.invoke.MethodHandles.filterArguments;
+import static java.lang.invoke.MethodHandles.filterReturnValue;
+import static java.lang.invoke.MethodHandles.guardWithTest;
+import static java.lang.invoke.MethodHandles.identity;
+import static java.lang.invoke.MethodHandles.insertArguments;
+import static java.lang.invoke.MethodHandles.permuteArguments;
+import static java.lang.invoke.MethodType.methodType;
+import static java.util.Objects.requireNonNull;
+
+class MapTraitImpl {
+  private static final MethodHandle OBJECTS_EQUALS, INT_EQUALS, LONG_EQUALS, FLOAT_EQUALS, DOUBLE_EQUALS, BOOLEAN_EQUALS;
+  static {
+    var lookup = MethodHandles.lookup();
+    try {
+      OBJECTS_EQUALS = lookup.findStatic(Objects.class, "equals", methodType(boolean.class, Object.class, Object.class));
+      INT_EQUALS = lookup.findStatic(MapTraitImpl.class, "intEquals", methodType(boolean.class, int.class, int.class));
+      LONG_EQUALS = lookup.findStatic(MapTraitImpl.class, "longEquals", methodType(boolean.class, long.class, long.class));
+      FLOAT_EQUALS = lookup.findStatic(MapTraitImpl.class, "floatEquals", methodType(boolean.class, float.class, float.class));
+      DOUBLE_EQUALS = lookup.findStatic(MapTraitImpl.class, "doubleEquals", methodType(boolean.class, double.class, double.class));
+      BOOLEAN_EQUALS = lookup.findStatic(MapTraitImpl.class, "booleanEquals", methodType(boolean.class, boolean.class, boolean.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static boolean intEquals(int v1, int v2) {
+    return v1 == v2;
+  }
+  private static boolean longEquals(long v1, long v2) {
+    return v1 == v2;
+  }
+  // same semantics as Float.equals() and Double.equals(), NaN is equal to itself and 0.0 is not equal to -0.0
+  private static boolean floatEquals(float v1, float v2) {
+    return Float.floatToIntBits(v1) == Float.floatToIntBits(v2);
+  }
+  private static boolean doubleEquals(double v1, double v2) {
+    return Double.doubleToLongBits(v1) == Double.doubleToLongBits(v2);
+  }
+  private static boolean booleanEquals(boolean v1, boolean v2) {
+    return v1 == v2;
+  }
+
+  /**
+   * For each record class, a method handle typed {@code (Object, Object)boolean} that compares
+   * two instances of the record class component by component.
+   * The primitive values are compared without being boxed.
+   *
+   * @see #equalsKernel(Class, RecordShape)
+   */
+  private static final ClassValue<MethodHandle> EQUALS_KERNELS = new ClassValue<>() {
+    @Override
+    protected MethodHandle computeValue(Class<?> type) {
+      return equalsKernel(type, TraitImpl.recordShape(type));
+    }
+  };
+
+  private static MethodHandle equalsKernel(Class<?> type, RecordShape shape) {
+    var falseHandle = dropArguments(constant(boolean.class, false), 0, type, type);
+    var kernel = dropArguments(constant(boolean.class, true), 0, type, type);
+    for(var i = shape.size(); --i >= 0;) {
+      var getter = shape.getValue(i);
+      var test = filterArguments(equalsOf(getter.type().returnType()), 0, getter, getter);
+      kernel = guardWithTest(test, kernel, falseHandle);
+    }
+    return kernel.asType(methodType(boolean.class, Object.class, Object.class));
+  }
+
+  private static MethodHandle equalsOf(Class<?> type) {
+    if (!type.isPrimitive()) {
+      return OBJECTS_EQUALS.asType(methodType(boolean.class, type, type));
+    }
+    if (type == long.class) {
+      return LONG_EQUALS;
+    }
+    if (type == float.class) {
+      return FLOAT_EQUALS;
+    }
+    if (type == double.class) {
+      return DOUBLE_EQUALS;
+    }
+    if (type == boolean.class) {
+      return BOOLEAN_EQUALS;
+    }
+    // byte, short, char and int
+    return INT_EQUALS.asType(methodType(boolean.class, type, type));
+  }
+
+  /**
+   * Compares two records of the same record class component by component.
+   *
+   * @param record1 a record
+   * @param record2 another record of the same record class
+   * @return true if all the record components are equals
+   */
+  static boolean equalsSameClass(Object record1, Object record2) {
+    try {
+      return (boolean) EQUALS_KERNELS.get(record1.getClass()).invokeExact(record1, record2);
+    } catch(RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new UndeclaredThrowableException(t);
+    }
+  }
+
+  private static final MethodHandle INT_SUM, ENTRY_HASH, OBJECTS_HASH_CODE;
+  static {
+    var lookup = MethodHandles.lookup();
+    try {
+      INT_SUM = lookup.findStatic(Integer.class, "sum", methodType(int.class, int.class, int.class));
+      ENTRY_HASH = lookup.findStatic(MapTraitImpl.class, "entryHash", methodType(int.class, int.class, int.class));
+      OBJECTS_HASH_CODE = lookup.findStatic(Objects.class, "hashCode", methodType(int.class, Object.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static int entryHash(int keyHash, int valueHash) {
+    return keyHash ^ valueHash;
+  }
+
+  /**
+   * For each record class, a method handle typed {@code (Object)int} that computes the hash code
+   * of the record seen as a map, i.e. the sum of {@code key.hashCode() ^ Objects.hashCode(value)}.
+   * The hash codes of the keys are constants and the primitive values are hashed
+   * using the static method {@code hashCode} of their wrapper class, so they are not boxed.
+   *
+   * @see MapTrait#hashCodeOfMap()
+   */
+  private static final ClassValue<MethodHandle> HASH_CODE_KERNELS = new ClassValue<>() {
+    @Override
+    protected MethodHandle computeValue(Class<?> type) {
+      return hashCodeKernel(type, TraitImpl.recordShape(type));
+    }
+  };
+
+  private static MethodHandle hashCodeKernel(Class<?> type, RecordShape shape) {
+    var kernel = dropArguments(constant(int.class, 0), 0, type);
+    for(var i = 0; i < shape.size(); i++) {
+      var getter = shape.getValue(i);
+      var valueHash = filterReturnValue(getter, hashCodeOf(getter.type().returnType()));
+      var entryHash = filterReturnValue(valueHash, insertArguments(ENTRY_HASH, 0, shape.getKey(i).hashCode()));
+      // kernel(r) + entryHash(r)
+      kernel = permuteArguments(filterArguments(INT_SUM, 0, kernel, entryHash), methodType(int.class, type), 0, 0);
+    }
+    return kernel.asType(methodType(int.class, Object.class));
+  }
+
+  private static MethodHandle hashCodeOf(Class<?> type) {
+    if (!type.isPrimitive()) {
+      return OBJECTS_HASH_CODE.asType(methodType(int.class, type));
+    }
+    var wrapper = methodType(type).wrap().returnType();
+    try {
+      return MethodHandles.publicLookup().findStatic(wrapper, "hashCode", methodType(int.class, type));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Computes the hash code of a record seen as a map.
+   *
+   * @param record a record
+   * @return the hash code of the record seen as a map
+   */
+  static int hashCodeOfMap(Object record) {
+    try {
+      return (int) HASH_CODE_KERNELS.get(record.getClass()).invokeExact(record);
+    } catch(RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new UndeclaredThrowableException(t);
+    }
+  }
+
+  /**
+   * For each record class, a method handle typed {@code (Object)String} that computes
+   * the string representation of the record seen as a map.
+   * The method handle is created using the {@link StringConcatFactory} with the keys as constants,
+   * so the primitive values are not boxed and there is no intermediary string.
+   * The {@link StringConcatFactory} has a limit on the number of arguments,
+   * in that case, the string representation is computed with a {@link StringBuilder}.
+   *
+   * @see MapTrait#toStringOfMap()
+   */
+  private static final ClassValue<MethodHandle> TO_STRING_KERNELS = new ClassValue<>() {
+    @Override
+    protected MethodHandle computeValue(Class<?> type) {
+      return toStringKernel(type, TraitImpl.recordShape(type));
+    }
+  };
+
+  private static MethodHandle toStringKernel(Class<?> type, RecordShape shape) {
+    var size = shape.size();
+    var getters = new MethodHandle[size];
+    var recipe = new StringBuilder();
+    for(var i = 0; i < size; i++) {
+      getters[i] = erase(type, shape.getValue(i));
+      recipe.append("\2\1");  // a constant then an argument
+    }
+    recipe.append("\2");
+    var constants = (Object[]) FRAGMENTS.get(type);
+    var concatType = methodType(String.class, Arrays.stream(getters).map(getter -> getter.type().returnType()).toArray(Class<?>[]::new));
+    MethodHandle concat;
+    try {
+      concat = StringConcatFactory.makeConcatWithConstants(MethodHandles.lookup(), "toString", concatType, recipe.toString(), constants).dynamicInvoker();
+    } catch (StringConcatException e) {
+      return null;  // too many record components
+    }
+    var kernel = filterArguments(concat, 0, getters);
+    return permuteArguments(kernel, methodType(String.class, type), new int[size])
+        .asType(methodType(String.class, Object.class));
+  }
+
+  /**
+   * Computes the string representation of a record seen as a map.
+   *
+   * @param record a record
+   * @return the string representation of the record seen as a map
+   */
+  static String toStringOfMap(Object record) {
+    var kernel = TO_STRING_KERNELS.get(record.getClass());
+    if (kernel == null) {
+      return toStringOfMapSlowPath(record);
+    }
+    try {
+      return (String) kernel.invokeExact(record);
+    } catch(RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new UndeclaredThrowableException(t);
+    }
+  }
+
+  private static String toStringOfMapSlowPath(Object record) {
+    return appendMapTo(record, new StringBuilder()).toString();
+  }
+
+  // erase the reference types, the component types may not be accessible from this class
+  private static MethodHandle erase(Class<?> type, MethodHandle getter) {
+    return getter.type().returnType().isPrimitive()? getter: getter.asType(methodType(Object.class, type));
+  }
+
+  /**
+   * For each record class, the fragments of text written between the values of the record components
+   * when a record is seen as a map, by example for a record {@code Person(String name, int age)}
+   * the fragments are {@code "{name="}, {@code ", age="} and {@code "}"}.
+   */
+  private static final ClassValue<String[]> FRAGMENTS = new ClassValue<>() {
+    @Override
+    protected String[] computeValue(Class<?> type) {
+      var shape = TraitImpl.recordShape(type);
+      var size = shape.size();
+      var fragments = new String[size + 1];
+      for(var i = 0; i < size; i++) {
+        fragments[i] = (i == 0? "{": ", ") + shape.getKey(i) + '=';
+      }
+      fragments[size] = size == 0? "{}": "}";
+      return fragments;
+    }
+  };
+
+  private static final MethodHandle APPEND_STRING;
+  static {
+    try {
+      APPEND_STRING = MethodHandles.publicLookup().findVirtual(StringBuilder.class, "append", methodType(StringBuilder.class, String.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * For each record class, a method handle typed {@code (StringBuilder, Object)StringBuilder}
+   * that appends the fragments and the values of the record components to a StringBuilder,
+   * using the method {@code append} that takes the type of the record component as parameter,
+   * so the primitive values are not boxed.
+   *
+   * @see MapTrait#appendMapTo(StringBuilder)
+   */
+  private static final ClassValue<MethodHandle> APPEND_KERNELS = new ClassValue<>() {
+    @Override
+    protected MethodHandle computeValue(Class<?> type) {
+      return appendKernel(type, TraitImpl.recordShape(type));
+    }
+  };
+
+  private static MethodHandle appendKernel(Class<?> type, RecordShape shape) {
+    var fragments = FRAGMENTS.get(type);
+    var kernelType = methodType(StringBuilder.class, StringBuilder.class, type);
+    var kernel = dropArguments(identity(StringBuilder.class), 1, type);
+    for(var i = 0; i < shape.size(); i++) {
+      var getter = erase(type, shape.getValue(i));
+      var appendValue = filterArguments(appendOf(getter.type().returnType()), 1, getter);
+      var step = filterArguments(appendValue, 0, insertArguments(APPEND_STRING, 1, fragments[i]));
+      // step(kernel(builder, record), record)
+      kernel = permuteArguments(collectArguments(step, 0, kernel), kernelType, 0, 1, 1);
+    }
+    kernel = filterReturnValue(kernel, insertArguments(APPEND_STRING, 1, fragments[shape.size()]));
+    return kernel.asType(methodType(StringBuilder.class, StringBuilder.class, Object.class));
+  }
+
+  private static MethodHandle appendOf(Class<?> type) {
+    // byte and short are appended as int
+    var parameterType = (type == byte.class || type == short.class)? int.class: type;
+    try {
+      return MethodHandles.publicLookup().findVirtual(StringBuilder.class, "append", methodType(StringBuilder.class, parameterType))
+          .asType(methodType(StringBuilder.class, StringBuilder.class, type));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Appends the string representation of a record seen as a map to a StringBuilder.
+   *
+   * @param record a record
+   * @param builder the StringBuilder
+   * @return the StringBuilder
+   */
+  static StringBuilder appendMapTo(Object record, StringBuilder builder) {
+    try {
+      return (StringBuilder) APPEND_KERNELS.get(record.getClass()).invokeExact(builder, record);
+    } catch(RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new UndeclaredThrowableException(t);
+    }
+  }
+
+  /**
+   * Appends the string representation of a record seen as a map to an Appendable.
+   *
+   * @param record a record
+   * @param appendable the Appendable
+   * @throws IOException if the Appendable throws an IOException
+   */
+  static void appendMapTo(Object record, Appendable appendable) throws IOException {
+    if (appendable instanceof StringBuilder builder) {
+      appendMapTo(record, builder);
+      return;
+    }
+    var shape = TraitImpl.recordShape(record.getClass());
+    var fragments = FRAGMENTS.get(record.getClass());
+    for(var i = 0; i < shape.size(); i++) {
+      appendable.append(fragments[i]).append(String.valueOf(shape.get(record, i)));
+    }
+    appendable.append(fragments[shape.size()]);
+  }
+
+  /**
+   * Returns the number of record components of a type.
+   *
+   * @param shape the shape of a record class
+   * @param type the type of the record components
+   * @return the number of record components of the type
+   */
+  static int count(RecordShape shape, Class<?> type) {
+    var count = 0;
+    for(var i = 0; i < shape.size(); i++) {
+      if (shape.getType(i) == type) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  static void copyColumnsTo(List<?> records, Object[] columns) {
+    if (records.isEmpty()) {
+      return;
+    }
+    var recordType = records.get(0).getClass();
+    var shape = TraitImpl.recordShape(recordType);
+    if (columns.length != shape.size()) {
+      throw new IllegalArgumentException("the number of columns " + columns.length + " is not the number of record components " + shape.size());
+    }
+    var components = new ComponentImpl<?>[columns.length];
+    for(var i = 0; i < columns.length; i++) {
+      var column = columns[i];
+      if (column == null) {
+        continue;
+      }
+      var type = shape.getType(i);
+      var componentType = column.getClass().getComponentType();
+      if (componentType == null || (type.isPrimitive()? componentType != type: !componentType.isAssignableFrom(type))) {
+        throw new IllegalArgumentException("the column " + i + " of type " + column.getClass().getName() + " can not store the values of the record component " + shape.getKey(i) + " of type " + type.getName());
+      }
+      Objects.checkFromIndexSize(0, records.size(), Array.getLength(column));
+      components[i] = shape.component(i);
+    }
+    // check all the records before writing, so the columns are not partially written
+    for(var record: records) {
+      if (record.getClass() != recordType) {
+        throw new IllegalArgumentException("the record " + record + " is not an instance of " + recordType.getName());
+      }
+    }
+
+    var row = 0;
+    for(var record: records) {
+      for(var i = 0; i < components.length; i++) {
+        @SuppressWarnings("unchecked")
+        var component = (ComponentImpl<Object>) components[i];
+        if (component == null) {
+          continue;
+        }
+        var column = columns[i];
+        var type = component.type();
+        if (!type.isPrimitive()) {
+          ((Object[]) column)[row] = component.get(record);
+        } else if (type == int.class) {
+          ((int[]) column)[row] = component.getInt(record);
+        } else if (type == long.class) {
+          ((long[]) column)[row] = component.getLong(record);
+        } else if (type == double.class) {
+          ((double[]) column)[row] = component.getDouble(record);
+        } else if (type == boolean.class) {
+          ((boolean[]) column)[row] = component.getBoolean(record);
+        } else if (type == float.class) {
+          ((float[]) column)[row] = (float) component.getDouble(record);
+        } else if (type == byte.class) {
+          ((byte[]) column)[row] = (byte) component.getInt(record);
+        } else if (type == short.class) {
+          ((short[]) column)[row] = (short) component.getInt(record);
+        } else {
+          ((char[]) column)[row] = (char) component.getInt(record);
+        }
+      }
+      row++;
+    }
+  }
+
+  static Object toRecord(Map<String, ?> map, Class<?> recordType) {
+    if (map.getClass() == recordType) {
+      return map;  // a record is immutable
+    }
+    var shape = TraitImpl.recordShape(recordType);
+    if (map instanceof OverlayImpl overlay && overlay.shape == shape) {
+      return overlay.toRecord();
+    }
+    var values = new Object[shape.size()];
+    if (map instanceof MapTrait mapTrait) {
+      var mapShape = TraitImpl.recordShape(mapTrait.getClass());
+      for(var i = 0; i < mapShape.size(); i++) {
+        values[slot(shape, mapShape.getKey(i), i, recordType)] = mapShape.get(mapTrait, i);
+      }
+    } else {
+      var index = 0;
+      for(var entry: map.entrySet()) {
+        values[slot(shape, entry.getKey(), index++, recordType)] = entry.getValue();
+      }
+    }
+    try {
+      return shape.constructor().invokeExact(values);
+    } catch(RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new UndeclaredThrowableException(t);
+    }
+  }
+
+  private static int slot(RecordShape shape, String key, int index, Class<?> recordType) {
+    // if the iteration order is the record components order, there is no need to use the hash table
+    if (index < shape.size()) {
+      var expectedKey = shape.getKey(index);
+      if (expectedKey == key || expectedKey.equals(key)) {
+        return index;
+      }
+    }
+    var slot = shape.getSlot(requireNonNull(key, "one key is null"));
+    if (slot == -1) {
+      throw new IllegalArgumentException("unknown key " + key + " for record " + recordType.getName());
+    }
+    return slot;
+  }
+
+  /**
+   * Implementation of {@link MapTrait.Component}, the getters are stored in the fields of a record
+   * so if the instance is a constant, the JIT trusts the fields and the getters are constant too.
+   *
+   * A getter typed as a primitive type is null if the record component type can not be converted
+   * to that primitive type.
+   */
+  record ComponentImpl<R>(String name, int index, Class<?> type, MethodHandle getter,
+                          MethodHandle objectGetter, MethodHandle intGetter, MethodHandle longGetter, MethodHandle doubleGetter,
+                          MethodHandle booleanGetter)
+      implements MapTrait.Component<R> {
+
+    static <R> ComponentImpl<R> of(Class<?> recordType, String name) {
+      var shape = TraitImpl.recordShape(recordType);
+      var index = shape.getSlot(name);
+      if (index == -1) {
+        throw new IllegalArgumentException("unknown record component " + name + " for record " + recordType.getName());
+      }
+      return shape.component(index);
+    }
+
+    static ComponentImpl<?> of(RecordShape shape, int index) {
+      return of(shape.getKey(index), index, shape.getValue(index));
+    }
+
+    static <R> ComponentImpl<R> of(String name, int index, MethodHandle getter) {
+      return new ComponentImpl<>(name, index, getter.type().returnType(), getter,
+          getter.asType(methodType(Object.class, Object.class)),
+          asTypeOrNull(getter, int.class),
+          asTypeOrNull(getter, long.class),
+          asTypeOrNull(getter, double.class),
+          asTypeOrNull(getter, boolean.class));
+    }
+
+    private static MethodHandle asTypeOrNull(MethodHandle getter, Class<?> returnType) {
+      try {
+        return getter.asType(methodType(returnType, Object.class));
+      } catch (WrongMethodTypeException e) {
+        return null;
+      }
+    }
+
+    private ClassCastException notConvertible(Class<?> primitiveType) {
+      return new ClassCastException("the record component " + name + " of type " + type.getName() + " can not be converted to " + primitiveType.getName());
+    }
+
+    @Override
+    public Object get(R record) {
+      try {
+        return (Object) objectGetter.invokeExact((Object) record);
+      } catch(RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new UndeclaredThrowableException(t);
+      }
+    }
+
+    @Override
+    public int getInt(R record) {
+      if (intGetter == null) {
+        throw notConvertible(int.class);
+      }
+      try {
+        return (int) intGetter.invokeExact((Object) record);
+      } catch(RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new UndeclaredThrowableException(t);
+      }
+    }
+
+    @Override
+    public long getLong(R record) {
+      if (longGetter == null) {
+        throw notConvertible(long.class);
+      }
+      try {
+        return (long) longGetter.invokeExact((Object) record);
+      } catch(RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new UndeclaredThrowableException(t);
+      }
+    }
+
+    @Override
+    public double getDouble(R record) {
+      if (doubleGetter == null) {
+        throw notConvertible(double.class);
+      }
+      try {
+        return (double) doubleGetter.invokeExact((Object) record);
+      } catch(RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new UndeclaredThrowableException(t);
+      }
+    }
+
+    @Override
+    public boolean getBoolean(R record) {
+      if (booleanGetter == null) {
+        throw notConvertible(boolean.class);
+      }
+      try {
+        return (boolean) booleanGetter.invokeExact((Object) record);
+      } catch(RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new UndeclaredThrowableException(t);
+      }
+    }
+  }
+
+  private static final MethodHandle IS_NULL;
+  static {
+    try {
+      IS_NULL = MethodHandles.lookup().findStatic(Objects.class, "isNull", methodType(boolean.class, Object.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Implementation of {@link MapTrait.Path}, the getters of each segment of the path are combined
+   * into one method handle ({@code getter}) and the typed getters are the ones of a {@link ComponentImpl}
+   * created from that method handle.
+   */
+  record PathImpl<R>(String path, Class<?> type, MethodHandle getter, ComponentImpl<R> component) implements MapTrait.Path<R> {
+    static <R> PathImpl<R> of(Class<?> recordType, String path) {
+      var segments = path.split("\\.", -1);
+      var getters = new MethodHandle[segments.length];
+      Class<?> type = recordType;
+      for(var i = 0; i < segments.length; i++) {
+        var segment = segments[i];
+        if (!type.isRecord()) {
+          throw new IllegalArgumentException("in the path " + path + ", " + type.getName() + " is not a record");
+        }
+        var shape = TraitImpl.recordShape(type);
+        var slot = shape.getSlot(segment);
+        if (slot == -1) {
+          throw new IllegalArgumentException("in the path " + path + ", unknown record component " + segment + " for record " + type.getName());
+        }
+        getters[i] = shape.getValue(slot);
+        type = shape.getType(slot);
+      }
+      var getter = getters[segments.length - 1];
+      if (segments.length > 1) {
+        // if a record in the middle of the path is null, the value is null, so a primitive type has to be boxed
+        getter = getter.asType(getter.type().wrap().changeParameterType(0, getter.type().parameterType(0)));
+      }
+      var resultType = getter.type().returnType();
+      for(var i = segments.length - 1; --i >= 0;) {
+        var recordClass = getter.type().parameterType(0);
+        var guarded = guardWithTest(IS_NULL.asType(methodType(boolean.class, recordClass)),
+            MethodHandles.empty(methodType(resultType, recordClass)),
+            getter);
+        getter = filterArguments(guarded, 0, getters[i]);
+      }
+      return new PathImpl<>(path, resultType, getter, ComponentImpl.of(path, -1, getter));
+    }
+
+    @Override
+    public Object get(R record) {
+      return component.get(record);
+    }
+
+    @Override
+    public int getInt(R record) {
+      return component.getInt(record);
+    }
+
+    @Override
+    public long getLong(R record) {
+      return component.getLong(record);
+    }
+
+    @Override
+    public double getDouble(R record) {
+      return component.getDouble(record);
+    }
+
+    @Override
+    public boolean getBoolean(R record) {
+      return component.getBoolean(record);
+    }
+  }
+
+  /**
+   * Implementation of {@link MapTrait.Cursor}, the primitive values are read using
+   * the {@link ComponentImpl} cached in the {@link RecordShape}, so iterating does not allocate.
+   */
+  static final class CursorImpl implements MapTrait.Cursor {
+    private MapTrait record;
+    private RecordShape shape;
+    private int index;
+
+    @Override
+    public CursorImpl reset(MapTrait record) {
+      requireNonNull(record, "record is null");
+      this.record = record;
+      this.shape = TraitImpl.recordShape(record.getClass());
+      this.index = -1;
+      return this;
+    }
+
+    @Override
+    public boolean next() {
+      if (index < shape.size()) {
+        index++;
+      }
+      return index < shape.size();
+    }
+
+    private int checkIndex() {
+      if (index == -1 || index == shape.size()) {
+        throw new IllegalStateException("the cursor is not on a record component");
+      }
+      return index;
+    }
+
+    @Override
+    public int index() {
+      return checkIndex();
+    }
+
+    @Override
+    public String key() {
+      return shape.getKey(checkIndex());
+    }
+
+    @Override
+    public Class<?> type() {
+      return shape.getType(checkIndex());
+    }
+
+    @Override
+    public Object value() {
+      return shape.get(record, checkIndex());
+    }
+
+    @Override
+    public int getInt() {
+      return shape.component(checkIndex()).getInt(record);
+    }
+
+    @Override
+    public long getLong() {
+      return shape.component(checkIndex()).getLong(record);
+    }
+
+    @Override
+    public double getDouble() {
+      return shape.component(checkIndex()).getDouble(record);
+    }
+
+    @Override
+    public boolean getBoolean() {
+      return shape.component(checkIndex()).getBoolean(record);
+    }
+  }
+
+  /**
+   * An immutable map that stores the values of the record components of a record in an array,
+   * the keys and the hash table are shared with the {@link RecordShape} of the record class.
+   *
+   * @see MapTrait#snapshot()
+   */
+  static final class Snapshot extends AbstractMap<String, Object> {
+    private final RecordShape shape;
+    private final Object[] values;
+
+    private Snapshot(RecordShape shape, Object[] values) {
+      this.shape = shape;
+      this.values = values;
+    }
+
+    static Snapshot of(Object record) {
+      var shape = TraitImpl.recordShape(record.getClass());
+      var values = new Object[shape.size()];
+      shape.copyTo(record, values, 0);
+      return new Snapshot(shape, values);
+    }
+
+    @Override
+    public int size() {
+      return values.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return values.length == 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+      return getOrDefault(key, null);
+    }
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue) {
+      if (!(key instanceof String s)) {
+        return defaultValue;
+      }
+      var slot = shape.getSlot(s);
+      if (slot == -1) {
+        return defaultValue;
+      }
+      return values[slot];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key instanceof String s && shape.containsKey(s);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+      for(var v: values) {
+        if (Objects.equals(v, value)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+      requireNonNull(action, "action is null");
+      for(var i = 0; i < values.length; i++) {
+        action.accept(shape.getKey(i), values[i]);
+      }
+    }
+
+    @Override
+    public int hashCode() {
+      var h = 0;
+      for(var i = 0; i < values.length; i++) {
+        h += shape.getKey(i).hashCode() ^ Objects.hashCode(values[i]);
+      }
+      return h;
+    }
+
+    @Override
+    public Set<String> keySet() {
+      return new AbstractSet<>() {
+        @Override
+        public int size() {
+          return values.length;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+          return new Iterator<>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+              return index < values.length;
+            }
+
+            @Override
+            public String next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              return shape.getKey(index++);
+            }
+          };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+          return containsKey(o);
+        }
+      };
+    }
+
+    @Override
+    public Collection<Object> values() {
+      return Collections.unmodifiableList(Arrays.asList(values));
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public int size() {
+          return values.length;
+        }
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+          return new Iterator<>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+              return index < values.length;
+            }
+
+            @Override
+            public Entry<String, Object> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              var i = index++;
+              return new SimpleImmutableEntry<>(shape.getKey(i), values[i]);
+            }
+          };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+          return o instanceof Entry<?,?> e && containsKey(e.getKey()) && Objects.equals(get(e.getKey()), e.getValue());
+        }
+      };
+    }
+  }
+
+  /**
+   * Implementation of {@link MapTrait.Projection}, the keys of the projection have their own
+   * collision free hash table that associates each key to its index in the projection,
+   * {@code slots} associates each index of the projection to the slot of the record component.
+   */
+  record ProjectionImpl<R>(Class<?> recordType, RecordShape shape, List<String> keys, KeyTable keyTable, int[] slots)
+      implements MapTrait.Projection<R> {
+
+    static <R> ProjectionImpl<R> of(Class<?> recordType, String[] keys) {
+      var shape = TraitImpl.recordShape(recordType);
+      var keyArray = keys.clone();
+      var slots = new int[keyArray.length];
+      var keySet = new HashSet<String>();
+      for(var i = 0; i < keyArray.length; i++) {
+        var key = keyArray[i];
+        requireNonNull(key, "one key is null");
+        if (!keySet.add(key)) {
+          throw new IllegalArgumentException("the key " + key + " is repeated");
+        }
+        var slot = shape.getSlot(key);
+        if (slot == -1) {
+          throw new IllegalArgumentException("unknown record component " + key + " for record " + recordType.getName());
+        }
+        slots[i] = slot;
+      }
+      return new ProjectionImpl<>(recordType, shape, List.of(keyArray), KeyTable.of(keyArray), slots);
+    }
+
+    @Override
+    public Map<String, Object> apply(R record) {
+      requireNonNull(record, "record is null");
+      return new ProjectionView(this, recordType.cast(record));
+    }
+  }
+
+  /**
+   * An unmodifiable map view of a record that only contains the keys of a projection.
+   *
+   * @see ProjectionImpl#apply(Object)
+   */
+  private static final class ProjectionView extends IndexedView {
+    private final ProjectionImpl<?> projection;
+    private final Object record;
+
+    private ProjectionView(ProjectionImpl<?> projection, Object record) {
+      this.projection = projection;
+      this.record = record;
+    }
+
+    @Override
+    public int size() {
+      return projection.slots.length;
+    }
+
+    @Override
+    int indexOf(String key) {
+      return projection.keyTable.indexOf(key);
+    }
+
+    @Override
+    String key(int index) {
+      return projection.keys.get(index);
+    }
+
+    @Override
+    Object value(int index) {
+      return projection.shape.get(record, projection.slots[index]);
+    }
+  }
+
+  /**
+   * The flattened shape of a record class, the keys are the paths (separated by dots) of all the record
+   * components that are not typed by a record, the record components typed by a record are flattened recursively.
+   * A record class that contains itself, directly or indirectly, is not flattened inside itself.
+   * For each key, {@code getters} stores the getter of the path typed {@code (Object)Object}.
+   *
+   * @see MapTrait#flatten()
+   */
+  record FlatShape(KeyTable keyTable, String[] keys, MethodHandle[] getters) {
+    static FlatShape of(Class<?> recordType) {
+      var keyList = new ArrayList<String>();
+      collectKeys(recordType, "", new HashSet<>(Set.of(recordType)), keyList);
+      var keys = keyList.toArray(String[]::new);
+      var getters = new MethodHandle[keys.length];
+      for(var i = 0; i < keys.length; i++) {
+        getters[i] = PathImpl.of(recordType, keys[i]).component().objectGetter();
+      }
+      return new FlatShape(KeyTable.of(keys), keys, getters);
+    }
+
+    private static void collectKeys(Class<?> type, String prefix, HashSet<Class<?>> enclosingTypes, List<String> keys) {
+      var shape = TraitImpl.recordShape(type);
+      for(var i = 0; i < shape.size(); i++) {
+        var key = prefix + shape.getKey(i);
+        var componentType = shape.getType(i);
+        if (componentType.isRecord() && enclosingTypes.add(componentType)) {
+          collectKeys(componentType, key + '.', enclosingTypes, keys);
+          enclosingTypes.remove(componentType);
+        } else {
+          keys.add(key);
+        }
+      }
+    }
+  }
+
+  private static final ClassValue<FlatShape> FLAT_SHAPES = new ClassValue<>() {
+    @Override
+    protected FlatShape computeValue(Class<?> type) {
+      return FlatShape.of(type);
+    }
+  };
+
+  /**
+   * Returns an unmodifiable map view of a record and its nested records with the paths as keys.
+   *
+   * @param record a record
+   * @return a flattened map view of a record
+   */
+  static Map<String, Object> flatten(Object record) {
+    return new FlatView(FLAT_SHAPES.get(record.getClass()), record);
+  }
+
+  /**
+   * Computes the data structures of a record class used by the methods of {@link MapTrait},
+   * the components, the kernels of {@link MapTrait#equals(Object)}, {@link MapTrait#hashCodeOfMap()},
+   * {@link MapTrait#toStringOfMap()} and {@link MapTrait#appendMapTo(StringBuilder)}
+   * and the keys of {@link MapTrait#flatten()}.
+   *
+   * @param type the class of a record
+   *
+   * @see RecordWarmer
+   */
+  static void warmUp(Class<?> type) {
+    var shape = TraitImpl.recordShape(type);
+    for(var i = 0; i < shape.size(); i++) {
+      shape.component(i);
+    }
+    EQUALS_KERNELS.get(type);
+    HASH_CODE_KERNELS.get(type);
+    TO_STRING_KERNELS.get(type);
+    APPEND_KERNELS.get(type);  // also computes the fragments
+    FLAT_SHAPES.get(type);
+  }
+
+  /**
+   * An unmodifiable map view of a record using the keys of a {@link FlatShape}.
+   *
+   * @see #flatten(Object)
+   */
+  private static final class FlatView extends IndexedView {
+    private final FlatShape shape;
+    private final Object record;
+
+    private FlatView(FlatShape shape, Object record) {
+      this.shape = shape;
+      this.record = record;
+    }
+
+    @Override
+    public int size() {
+      return shape.keys.length;
+    }
+
+    @Override
+    int indexOf(String key) {
+      return shape.keyTable.indexOf(key);
+    }
+
+    @Override
+    String key(int index) {
+      return shape.keys[index];
+    }
+
+    @Override
+    Object value(int index) {
+      try {
+        return (Object) shape.getters[index].invokeExact(record);
+      } catch(RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new UndeclaredThrowableException(t);
+      }
+    }
+  }
+
+  /**
+   * An unmodifiable map view where each key has an index, the keys are found using {@link #indexOf(String)}
+   * and the values are computed on demand by {@link #value(int)}.
+   */
+  private static abstract class IndexedView extends AbstractMap<String, Object> {
+    abstract int indexOf(String key);
+    abstract String key(int index);
+    abstract Object value(int index);
+
+    @Override
+    public abstract int size();
+
+    @Override
+    public boolean isEmpty() {
+      return size() == 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+      return getOrDefault(key, null);
+    }
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue) {
+      if (!(key instanceof String s)) {
+        return defaultValue;
+      }
+      var index = indexOf(s);
+      if (index == -1) {
+        return defaultValue;
+      }
+      return value(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key instanceof String s && indexOf(s) != -1;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+      requireNonNull(action, "action is null");
+      for(var i = 0; i < size(); i++) {
+        action.accept(key(i), value(i));
+      }
+    }
+
+    @Override
+    public Set<String> keySet() {
+      return new AbstractSet<>() {
+        @Override
+        public int size() {
+          return IndexedView.this.size();
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+          return new Iterator<>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+              return index < size();
+            }
+
+            @Override
+            public String next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              return key(index++);
+            }
+          };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+          return containsKey(o);
+        }
+      };
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public int size() {
+          return IndexedView.this.size();
+        }
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+          return new Iterator<>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+              return index < size();
+            }
+
+            @Override
+            public Entry<String, Object> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              var i = index++;
+              return new SimpleImmutableEntry<>(key(i), value(i));
+            }
+          };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+          return o instanceof Entry<?,?> e && containsKey(e.getKey()) && Objects.equals(get(e.getKey()), e.getValue());
+        }
+      };
+    }
+  }
+
+  /**
+   * Implementation of {@link MapTrait.Overlay}, the values that are changed are stored
+   * in an array indexed by the slots of the {@link RecordShape}, a value that is not changed
+   * is represented by {@link #UNCHANGED}. The array is only allocated when a value is changed.
+   */
+  static final class OverlayImpl extends AbstractMap<String, Object> implements MapTrait.Overlay {
+    private static final Object UNCHANGED = new Object();
+
+    private final RecordShape shape;
+    private final Record record;
+    private Object[] delta;
+
+    OverlayImpl(RecordShape shape, Object record) {
+      this.shape = shape;
+      this.record = (Record) record;
+    }
+
+    private Object value(int slot) {
+      if (delta != null) {
+        var value = delta[slot];
+        if (value != UNCHANGED) {
+          return value;
+        }
+      }
+      return shape.get(record, slot);
+    }
+
+    @Override
+    public int size() {
+      return shape.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return shape.isEmpty();
+    }
+
+    @Override
+    public Object get(Object key) {
+      return getOrDefault(key, null);
+    }
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue) {
+      if (!(key instanceof String s)) {
+        return defaultValue;
+      }
+      var slot = shape.getSlot(s);
+      if (slot == -1) {
+        return defaultValue;
+      }
+      return value(slot);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key instanceof String s && shape.containsKey(s);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+      requireNonNull(key, "key is null");
+      var slot = shape.getSlot(key);
+      if (slot == -1) {
+        throw new IllegalArgumentException("unknown key " + key + " for record " + record.getClass().getName());
+      }
+      var type = shape.getType(slot);
+      if (type.isPrimitive()) {
+        requireNonNull(value, "the value of the record component " + key + " can not be null");
+        type = methodType(type).wrap().returnType();
+      }
+      if (value != null && !type.isInstance(value)) {
+        throw new ClassCastException("the value " + value + " is not an instance of " + type.getName());
+      }
+      var previous = value(slot);
+      if (delta == null) {
+        delta = new Object[shape.size()];
+        Arrays.fill(delta, UNCHANGED);
+      }
+      delta[slot] = value;
+      return previous;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object, ?> function) {
+      requireNonNull(function, "function is null");
+      for(var i = 0; i < shape.size(); i++) {
+        var key = shape.getKey(i);
+        put(key, function.apply(key, value(i)));
+      }
+    }
+
+    @Override
+    public Object remove(Object key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+      requireNonNull(action, "action is null");
+      for(var i = 0; i < shape.size(); i++) {
+        action.accept(shape.getKey(i), value(i));
+      }
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public int size() {
+          return shape.size();
+        }
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+          return new Iterator<>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+              return index < shape.size();
+            }
+
+            @Override
+            public Entry<String, Object> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              var i = index++;
+              return new SimpleImmutableEntry<>(shape.getKey(i), value(i));
+            }
+          };
+        }
+      };
+    }
+
+    @Override
+    public Record toRecord() {
+      if (delta == null) {
+        return record;
+      }
+      var values = new Object[shape.size()];
+      for(var i = 0; i < values.length; i++) {
+        values[i] = value(i);
+      }
+      try {
+        return (Record) (Object) shape.constructor().invokeExact(values);
+      } catch(RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new UndeclaredThrowableException(t);
+      }
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package com.github.forax.recordutil;
+
+/**
+ * Access to the values of the record components of a record instance using the index
+ * or the name of the record components.
+ *
+ * This interface is an implementation detail, it is public only because it is implemented
+ * by classes generated at runtime in the package of the record,
+ * users should not implement it or call its methods directly.
+ */
+public interface RecordAccessor {
+  /**
+   * Returns the value of the record component at index {@code index} of the record {@code record}.
+   *
+   * @param record a record instance
+   * @param index the index of the record component
+   * @return the value of the record component, boxed if the type of the record component is a primitive type
+   *
+   * @throws ClassCastException if the record has not the right class
+   * @throws IllegalArgumentException if the index is not a valid index
+   */
+  Object get(Object record, int index);
+
+  /**
+   * Returns the value of the record component named {@code name} of the record {@code record}
+   * or {@code defaultValue} if there is no record component named {@code name}.
+   *
+   * @param record a record instance
+   * @param name the name of a record component
+   * @param defaultValue the value returned if there is no record component named {@code name}
+   * @return the value of the record component, boxed if the type of the record component is a primitive type
+   *
+   * @throws ClassCastException if the record has not the right class
+   */
+  Object get(Object record, String name, Object defaultValue);
+
+  /**
+   * Copies the values of all the record components of the record {@code record} into an array,
+   * in the order of the record components.
+   * Unlike calling {@link #get(Object, int)} for each record component, there is only one call
+   * for all the record components.
+   *
+   * @param record a record instance
+   * @param dst the destination array
+   * @param offset the index of the first value in the destination array
+   *
+   * @throws ClassCastException if the record has not the right class
+   * @throws IndexOutOfBoundsException if the destination array is too small
+   * @throws ArrayStoreException if a value can not be stored in the destination array
+   */
+  void copyTo(Object record, Object[] dst, int offset);
+}
@@ -0,0 +1,269 @@
+package com.github.forax.recordutil;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static java.lang.invoke.MethodHandles.dropArguments;
+import static java.lang.invoke.MethodHandles.filterArguments;
+import static java.lang.invoke.MethodHandles.foldArguments;
+import static java.lang.invoke.MethodHandles.guardWithTest;
+import static java.lang.invoke.MethodHandles.identity;
+import static java.lang.invoke.MethodHandles.permuteArguments;
+import static java.lang.invoke.MethodType.methodType;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Creates comparators of records that compare several record components one after the other.
+ * <pre>
+ *   record Person(String lastName, String firstName, int age) {}
+ *   ...
+ *   var comparator = RecordComparators.of(Person.class, "lastName", "firstName");
+ *   var byAge = RecordComparators.of(Person.class, Key.descending("age"), Key.ascending("lastName").nullsFirst());
+ * </pre>
+ *
+ * Unlike a comparator created by {@link Comparator#comparing(java.util.function.Function)}
+ * and {@link Comparator#thenComparing(Comparator)}, the comparator is a single method handle
+ * that calls the record accessors directly and compares the values of primitive record components
+ * using {@link Integer#compare(int, int)}, {@link Double#compare(double, double)}, etc,
+ * so the values are never boxed.
+ *
+ * The record components used by a comparator have to be typed by a primitive type or
+ * by a class that implements {@link Comparable}.
+ */
+public final class RecordComparators {
+  private RecordComparators() {
+    throw new AssertionError();
+  }
+
+  /**
+   * A record component used to compare records with its direction and the position of the null values.
+   *
+   * @param name the name of the record component
+   * @param descending true if the values are sorted in descending order
+   * @param nullFirst true if the null values are before the non null values,
+   *                   whatever the direction
+   */
+  public record Key(String name, boolean descending, boolean nullFirst) {
+    /**
+     * Creates a key.
+     *
+     * @param name the name of the record component
+     * @param descending true if the values are sorted in descending order
+     * @param nullFirst true if the null values are before the non null values
+     *
+     * @throws NullPointerException if {@code name} is null
+     */
+    public Key {
+      requireNonNull(name, "name is null");
+    }
+
+    /**
+     * Returns a key that sorts the values in ascending order with the null values last.
+     *
+     * @param name the name of the record component
+     * @return a new key
+     *
+     * @throws NullPointerException if {@code name} is null
+     */
+    public static Key ascending(String name) {
+      return new Key(name, false, false);
+    }
+
+    /**
+     * Returns a key that sorts the values in descending order with the null values last.
+     *
+     * @param name the name of the record component
+     * @return a new key
+     *
+     * @throws NullPointerException if {@code name} is null
+     */
+    public static Key descending(String name) {
+      return new Key(name, true, false);
+    }
+
+    /**
+     * Returns a key with the same name and direction but the null values first.
+     * @return a key with the null values first
+     */
+    public Key nullsFirst() {
+      return new Key(name, descending, true);
+    }
+
+    /**
+     * Returns a key with the same name and direction but the null values last.
+     * @return a key with the null values last
+     */
+    public Key nullsLast() {
+      return new Key(name, descending, false);
+    }
+  }
+
+  /**
+   * Returns a comparator that compares records using several record components
+   * in ascending order with the null values last.
+   *
+   * @param recordType the class of the record
+   * @param names the names of the record components
+   * @param <R> the type of the record
+   * @return a comparator of records
+   *
+   * @throws NullPointerException if {@code recordType}, {@code names} or one of the names is null
+   * @throws IllegalArgumentException if a name is not the name of a record component or
+   *         if a record component is not typed by a primitive type or a {@link Comparable}
+   */
+  public static <R extends Record> Comparator<R> of(Class<R> recordType, String... names) {
+    requireNonNull(recordType, "recordType is null");
+    requireNonNull(names, "names is null");
+    return of(recordType, Arrays.stream(names).map(Key::ascending).toArray(Key[]::new));
+  }
+
+  /**
+   * Returns a comparator that compares records using several record components
+   * with for each one its direction and the position of the null values.
+   *
+   * @param recordType the class of the record
+   * @param key the first record component to compare
+   * @param keys the other record components to compare if the previous ones are equal
+   * @param <R> the type of the record
+   * @return a comparator of records
+   *
+   * @throws NullPointerException if {@code recordType}, {@code key}, {@code keys} or one of the keys is null
+   * @throws IllegalArgumentException if a name is not the name of a record component or
+   *         if a record component is not typed by a primitive type or a {@link Comparable}
+   */
+  public static <R extends Record> Comparator<R> of(Class<R> recordType, Key key, Key... keys) {
+    requireNonNull(recordType, "recordType is null");
+    requireNonNull(key, "key is null");
+    requireNonNull(keys, "keys is null");
+    return of(recordType, Stream.concat(Stream.of(key), Arrays.stream(keys)).toArray(Key[]::new));
+  }
+
+  private static <R extends Record> Comparator<R> of(Class<R> recordType, Key[] keys) {
+    var shape = TraitImpl.recordShape(recordType);
+    MethodHandle kernel = null;
+    for(var i = keys.length; --i >= 0;) {
+      var key = requireNonNull(keys[i], "one key is null");
+      var slot = shape.getSlot(key.name());
+      if (slot == -1) {
+        throw new IllegalArgumentException("unknown record component " + key.name() + " for record " + recordType.getName());
+      }
+      var getter = shape.getValue(slot);
+      var compare = filterArguments(compareOf(getter.type().returnType(), key), 0, getter, getter);
+      kernel = kernel == null? compare: thenCompare(compare, kernel, recordType);
+    }
+    if (kernel == null) {  // no key, all records are equal
+      kernel = dropArguments(MethodHandles.constant(int.class, 0), 0, recordType, recordType);
+    }
+    return new ComparatorImpl<>(kernel.asType(methodType(int.class, Object.class, Object.class)));
+  }
+
+  private record ComparatorImpl<R>(MethodHandle kernel) implements Comparator<R> {
+    @Override
+    public int compare(R record1, R record2) {
+      try {
+        return (int) kernel.invokeExact((Object) record1, (Object) record2);
+      } catch(RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new UndeclaredThrowableException(t);
+      }
+    }
+  }
+
+  private static final MethodHandle INT_COMPARE, LONG_COMPARE, FLOAT_COMPARE, DOUBLE_COMPARE, BOOLEAN_COMPARE,
+      COMPARE_NULLS_FIRST, COMPARE_NULLS_LAST, IS_NOT_ZERO;
+  static {
+    var lookup = MethodHandles.lookup();
+    try {
+      INT_COMPARE = lookup.findStatic(Integer.class, "compare", methodType(int.class, int.class, int.class));
+      LONG_COMPARE = lookup.findStatic(Long.class, "compare", methodType(int.class, long.class, long.class));
+      FLOAT_COMPARE = lookup.findStatic(Float.class, "compare", methodType(int.class, float.class, float.class));
+      DOUBLE_COMPARE = lookup.findStatic(Double.class, "compare", methodType(int.class, double.class, double.class));
+      BOOLEAN_COMPARE = lookup.findStatic(Boolean.class, "compare", methodType(int.class, boolean.class, boolean.class));
+      COMPARE_NULLS_FIRST = lookup.findStatic(RecordComparators.class, "compareNullsFirst", methodType(int.class, Comparable.class, Comparable.class));
+      COMPARE_NULLS_LAST = lookup.findStatic(RecordComparators.class, "compareNullsLast", methodType(int.class, Comparable.class, Comparable.class));
+      IS_NOT_ZERO = lookup.findStatic(RecordComparators.class, "isNotZero", methodType(boolean.class, int.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int compareNullsFirst(Comparable<Object> value1, Comparable<Object> value2) {
+    if (value1 == value2) {
+      return 0;
+    }
+    if (value1 == null) {
+      return -1;
+    }
+    if (value2 == null) {
+      return 1;
+    }
+    return value1.compareTo(value2);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int compareNullsLast(Comparable<Object> value1, Comparable<Object> value2) {
+    if (value1 == value2) {
+      return 0;
+    }
+    if (value1 == null) {
+      return 1;
+    }
+    if (value2 == null) {
+      return -1;
+    }
+    return value1.compareTo(value2);
+  }
+
+  private static boolean isNotZero(int value) {
+    return value != 0;
+  }
+
+  private static MethodHandle compareOf(Class<?> type, Key key) {
+    MethodHandle compare;
+    if (type.isPrimitive()) {
+      compare = primitiveCompareOf(type);
+    } else {
+      if (!Comparable.class.isAssignableFrom(type)) {
+        throw new IllegalArgumentException("the record component " + key.name() + " of type " + type.getName() + " is not comparable");
+      }
+      // in descending order, the arguments are swapped, so the position of the nulls has to be swapped too
+      compare = (key.nullFirst() ^ key.descending())? COMPARE_NULLS_FIRST: COMPARE_NULLS_LAST;
+    }
+    compare = compare.asType(methodType(int.class, type, type));
+    if (key.descending()) {
+      compare = permuteArguments(compare, compare.type(), 1, 0);
+    }
+    return compare;
+  }
+
+  private static MethodHandle primitiveCompareOf(Class<?> type) {
+    if (type == long.class) {
+      return LONG_COMPARE;
+    }
+    if (type == float.class) {
+      return FLOAT_COMPARE;
+    }
+    if (type == double.class) {
+      return DOUBLE_COMPARE;
+    }
+    if (type == boolean.class) {
+      return BOOLEAN_COMPARE;
+    }
+    // byte, short, char and int
+    return INT_COMPARE;
+  }
+
+  // (r1, r2) -> { var result = compare(r1, r2); return result != 0? result: next(r1, r2); }
+  private static MethodHandle thenCompare(MethodHandle compare, MethodHandle next, Class<?> recordType) {
+    var test = dropArguments(IS_NOT_ZERO, 1, recordType, recordType);
+    var ifNotZero = dropArguments(identity(int.class), 1, recordType, recordType);
+    var ifZero = dropArguments(next, 0, int.class);
+    return foldArguments(guardWithTest(test, ifNotZero, ifZero), compare);
+  }
+}
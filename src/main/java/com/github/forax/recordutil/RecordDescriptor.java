@@ -0,0 +1,103 @@
+package com.github.forax.recordutil;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.invoke.MethodHandles.Lookup;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A description of a record class generated at compile time by the annotation processor
+ * {@code com.github.forax.recordutil.processor.RecordDescriptorProcessor}.
+ *
+ * If a record class {@code Person} has a descriptor class named {@code Person$$RecordDescriptor}
+ * in the same package, the descriptor is used instead of the reflection, so the package of the record
+ * does not have to be open to the module {@code com.github.forax.recordutil}.
+ *
+ * The descriptor class registers itself in its static initializer using
+ * {@link #register(Lookup, RecordDescriptor)} with a lookup created in the package of the record.
+ * <pre>
+ *   final class Person$$RecordDescriptor implements RecordDescriptor {
+ *     static {
+ *       RecordDescriptor.register(MethodHandles.lookup(), new Person$$RecordDescriptor());
+ *     }
+ *     ...
+ *   }
+ * </pre>
+ *
+ * The annotation processor only generates a descriptor for the records annotated with {@link Generate}.
+ *
+ * This interface is an implementation detail, it is public only because it is implemented
+ * by generated classes, users should not implement it or call its methods directly.
+ */
+public interface RecordDescriptor extends RecordAccessor {
+  /**
+   * Asks the annotation processor to generate a descriptor for the annotated record.
+   * <pre>
+   *   &#64;RecordDescriptor.Generate
+   *   record Person(String name, int age) implements MapTrait {}
+   * </pre>
+   *
+   * The record has to be accessible from its package, so it can not be a private or a local record.
+   */
+  @Documented
+  @Retention(RetentionPolicy.SOURCE)
+  @Target(ElementType.TYPE)
+  @interface Generate {}
+
+  /**
+   * Returns the class of the record described.
+   * @return the class of the record described
+   */
+  Class<?> recordType();
+
+  /**
+   * Returns the names of the record components in the order of the declaration.
+   * @return the names of the record components
+   */
+  String[] names();
+
+  /**
+   * Returns the types of the record components in the order of the declaration.
+   * @return the types of the record components
+   */
+  Class<?>[] types();
+
+  /**
+   * Creates a new record instance by calling the canonical constructor with the values.
+   *
+   * @param values the values of the record components in the order of the declaration
+   * @return a new record instance
+   *
+   * @throws ClassCastException if one value has not a class compatible with the record component type
+   * @throws NullPointerException if a value is null and the record component type is a primitive type
+   */
+  Object newInstance(Object[] values);
+
+  /**
+   * Registers a descriptor of a record class.
+   *
+   * @param lookup a lookup with full privilege access created in the package of the record
+   * @param descriptor the descriptor of a record class
+   *
+   * @throws NullPointerException if {@code lookup} or {@code descriptor} is null
+   * @throws IllegalArgumentException if the lookup has not the full privilege access or is
+   *         not created in the package of the record class
+   */
+  static void register(Lookup lookup, RecordDescriptor descriptor) {
+    requireNonNull(lookup, "lookup is null");
+    requireNonNull(descriptor, "descriptor is null");
+    var recordType = descriptor.recordType();
+    var lookupClass = lookup.lookupClass();
+    if (!lookup.hasFullPrivilegeAccess() ||
+        lookupClass.getModule() != recordType.getModule() ||
+        lookupClass.getClassLoader() != recordType.getClassLoader() ||
+        !lookupClass.getPackageName().equals(recordType.getPackageName())) {
+      throw new IllegalArgumentException("the lookup " + lookup + " has no full privilege access on the package of " + recordType.getName());
+    }
+    TraitImpl.register(lookup, descriptor);
+  }
+}
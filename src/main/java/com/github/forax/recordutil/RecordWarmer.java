@@ -0,0 +1,256 @@
+package com.github.forax.recordutil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Pre-computes the data structures used by {@link MapTrait}, {@link WithTrait} and {@link JSONTrait}
+ * for several record classes.
+ *
+ * Those data structures are computed lazily the first time a record class is used,
+ * so the first call pays the cost of the reflection and of the creation of the method handles.
+ * Calling a method of this class when the application starts avoids that cost on the first requests.
+ * <pre>
+ *   var report = RecordWarmer.warmUpModule(Main.class.getModule());
+ *   System.out.println(report.recordCount() + " records warmed up in " + report.duration());
+ * </pre>
+ *
+ * For each record class, the warm up computes the description of the record class and its getters,
+ * if the record implements {@link MapTrait}, the kernels of {@code equals}, {@code hashCodeOfMap},
+ * {@code toStringOfMap}, {@code appendMapTo} and the keys of {@code flatten},
+ * and if the record implements {@link WithTrait}, the update plans of {@link WithTrait#with(String, Object)}.
+ *
+ * The work, including the loading of the classes when a module or a package is scanned,
+ * is spread across the threads of a {@link ForkJoinPool},
+ * by default the {@link ForkJoinPool#commonPool() common pool}.
+ *
+ * A {@link Wither} has no data structure shared between instances, its cache is populated
+ * by the calls to the methods {@code with} on a {@link Wither} instance so it can not be warmed up here.
+ */
+public final class RecordWarmer {
+  private RecordWarmer() {
+    throw new AssertionError();
+  }
+
+  /**
+   * The result of a warm up.
+   *
+   * @param recordCount the number of record classes warmed up
+   * @param duration the time taken by the warm up
+   */
+  public record Report(int recordCount, Duration duration) {
+    /**
+     * Creates a report.
+     *
+     * @param recordCount the number of record classes warmed up
+     * @param duration the time taken by the warm up
+     *
+     * @throws NullPointerException if {@code duration} is null
+     */
+    public Report {
+      requireNonNull(duration, "duration is null");
+    }
+  }
+
+  /**
+   * Warms up several record classes using the common pool.
+   *
+   * @param recordTypes the record classes
+   * @return a report containing the number of records warmed up and the time it took
+   *
+   * @throws NullPointerException if one of the record classes is null
+   * @throws IllegalArgumentException if one of the classes is not a record
+   * @throws IllegalAccessError if a record is declared in a package not open to this module
+   *
+   * @see #warmUp(Collection, ForkJoinPool)
+   */
+  public static Report warmUp(Class<?>... recordTypes) {
+    return warmUp(Arrays.asList(recordTypes), ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Warms up several record classes using a peculiar pool.
+   *
+   * @param recordTypes the record classes
+   * @param pool the pool used to run the warm up
+   * @return a report containing the number of records warmed up and the time it took
+   *
+   * @throws NullPointerException if one of the record classes is null or {@code pool} is null
+   * @throws IllegalArgumentException if one of the classes is not a record
+   * @throws IllegalAccessError if a record is declared in a package not open to this module
+   */
+  public static Report warmUp(Collection<? extends Class<?>> recordTypes, ForkJoinPool pool) {
+    requireNonNull(pool, "pool is null");
+    for(var recordType: recordTypes) {
+      requireNonNull(recordType, "one record type is null");
+      if (!recordType.isRecord()) {
+        throw new IllegalArgumentException(recordType.getName() + " is not a record");
+      }
+    }
+    var start = System.nanoTime();
+    var tasks = recordTypes.stream()
+        .map(recordType -> ForkJoinTask.adapt(() -> warmUpRecord(recordType)))
+        .toList();
+    pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    return new Report(tasks.size(), Duration.ofNanos(System.nanoTime() - start));
+  }
+
+  private static void warmUpRecord(Class<?> recordType) {
+    TraitImpl.recordShape(recordType).getters().resolveAll();
+    if (MapTrait.class.isAssignableFrom(recordType)) {
+      MapTraitImpl.warmUp(recordType);
+    }
+    if (WithTrait.class.isAssignableFrom(recordType)) {
+      WithTraitImpl.warmUp(recordType);
+    }
+  }
+
+  /**
+   * Warms up all the records of a named module declared in a package open to this module
+   * or that have a record descriptor generated by the annotation processor, using the common pool.
+   * The classes that can not be loaded (by example, because a dependency is missing) are skipped.
+   *
+   * @param module a named module
+   * @return a report containing the number of records warmed up and the time it took
+   *
+   * @throws NullPointerException if {@code module} is null
+   * @throws IllegalArgumentException if the module is not a named module
+   * @throws UncheckedIOException if the content of the module can not be read
+   */
+  public static Report warmUpModule(Module module) {
+    requireNonNull(module, "module is null");
+    if (!module.isNamed() || module.getLayer() == null) {
+      throw new IllegalArgumentException("the module " + module + " is not a named module");
+    }
+    var reference = module.getLayer().configuration().findModule(module.getName()).orElseThrow().reference();
+    List<String> classNames;
+    try(var reader = reference.open();
+        var resources = reader.list()) {
+      classNames = resources
+          .filter(name -> name.endsWith(".class") && !name.equals("module-info.class"))
+          .map(name -> name.substring(0, name.length() - ".class".length()).replace('/', '.'))
+          .toList();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return warmUpAll(classNames, className -> {
+      try {
+        return Class.forName(module, className);
+      } catch (LinkageError e) {
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Warms up all the records of a package, using the common pool.
+   * Only the records declared in a package open to this module or that have a record descriptor
+   * generated by the annotation processor are warmed up, the sub-packages are not scanned.
+   * The package is found using {@link ClassLoader#getResources(String)}, so inside a jar file,
+   * the package has to have a directory entry.
+   *
+   * @param loader the class loader used to find the package content
+   * @param packageName the name of the package
+   * @return a report containing the number of records warmed up and the time it took
+   *
+   * @throws NullPointerException if {@code loader} or {@code packageName} is null
+   * @throws UncheckedIOException if the content of the package can not be read
+   */
+  public static Report warmUpPackage(ClassLoader loader, String packageName) {
+    requireNonNull(loader, "loader is null");
+    requireNonNull(packageName, "packageName is null");
+    var path = packageName.replace('.', '/');
+    var classNames = new ArrayList<String>();
+    try {
+      var urls = loader.getResources(path);
+      while(urls.hasMoreElements()) {
+        classNames.addAll(listClassFiles(urls.nextElement(), path));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return warmUpAll(
+        classNames.stream()
+            .map(name -> packageName + '.' + name.substring(0, name.length() - ".class".length()))
+            .toList(),
+        className -> {
+          try {
+            return Class.forName(className, false, loader);
+          } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+          }
+        });
+  }
+
+  private static List<String> listClassFiles(URL url, String path) throws IOException {
+    switch (url.getProtocol()) {
+      case "file" -> {
+        try(var files = Files.list(Path.of(url.toURI()))) {
+          return files
+              .map(file -> file.getFileName().toString())
+              .filter(name -> name.endsWith(".class"))
+              .toList();
+        } catch (URISyntaxException e) {
+          throw new IOException(e);
+        }
+      }
+      case "jar" -> {
+        var connection = (JarURLConnection) url.openConnection();
+        connection.setUseCaches(false);
+        try(var jarFile = connection.getJarFile()) {
+          return jarFile.stream()
+              .map(ZipEntry::getName)
+              .filter(name -> name.startsWith(path + '/') && name.endsWith(".class") && name.indexOf('/', path.length() + 1) == -1)
+              .map(name -> name.substring(path.length() + 1))
+              .toList();
+        }
+      }
+      default -> {
+        return List.of();
+      }
+    }
+  }
+
+  /**
+   * Warms up the records among the classes named {@code classNames} using the common pool.
+   * The classes are loaded by the tasks of the pool, so the loading is also spread across the pool.
+   *
+   * @param classNames the names of the classes
+   * @param classLoading a function that loads a class from its name or returns null
+   * @return a report containing the number of records warmed up and the time it took
+   */
+  private static Report warmUpAll(List<String> classNames, Function<? super String, ? extends Class<?>> classLoading) {
+    var thisModule = RecordWarmer.class.getModule();
+    var start = System.nanoTime();
+    var tasks = classNames.stream()
+        .map(className -> ForkJoinTask.adapt(() -> {
+          var type = classLoading.apply(className);
+          if (type == null || !type.isRecord()
+              || !(type.getModule().isOpen(type.getPackageName(), thisModule) || TraitImpl.hasDescriptor(type))) {
+            return false;
+          }
+          warmUpRecord(type);
+          return true;
+        }))
+        .toList();
+    ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    var recordCount = (int) tasks.stream().filter(ForkJoinTask::join).count();
+    return new Report(recordCount, Duration.ofNanos(System.nanoTime() - start));
+  }
+}
@@ -1,358 +1,574 @@
 package com.github.forax.recordutil;
 
+import com.github.forax.recordutil.MapTraitImpl.ComponentImpl;
+
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.RecordComponent;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
 
 import static java.lang.invoke.MethodType.methodType;
 
 class TraitImpl {
 
   /**
-   * Combine a hash table ({@code table}) that stores a pair String/MethodHandle with
-   * a list {@code vec} that stores the same pair.
+   * A collision free hash table that associates each key (a record component name) to its index.
+   *
+   * The keys are known when the table is created, so the table uses a perfect hash
+   * (hash and displace), the keys are first dispatched into buckets using their hash,
+   * then for each bucket a {@code seed} is found so the keys of the bucket do not collide
+   * with the keys already inserted.
+   * So a lookup is one array access to find the seed, one array access to find the key
+   * and only one call to {@link String#equals(Object)}.
+   *
+   * If two keys have the same {@link String#hashCode()}, a salted hash ({@code salt != 0})
+   * computed on the characters of the key is used instead.
    *
    * <ol>
-   *  <li>to insert a pair uses {@link #put(int, String, MethodHandle)}
-   *  <li>to know the number of pairs uses {@link #size()}
-   *  <li>to get the value from a key uses {@link #getValue(String)}
-   *  <li>to get the key from an index uses {@link #getKey(int)}
-   *  <li>to get the value from an index uses {@link #getValue(int)}
+   *  <li>to create a table from the keys uses {@link #of(String[])}
+   *  <li>to get the index of a key uses {@link #indexOf(String)}
    * </ol>
    */
-  record MapShape(Object[] table, Object[] vec) {
-    MapShape(int capacity) {
-      this(new Object[capacity == 0? 2: Integer.highestOneBit(capacity) << 2], new Object[capacity << 1]);
+  record KeyTable(String[] table, int[] indexes, int[] seeds, int salt) {
+    private static final int MAX_SEED = 1 << 16;
+
+    static KeyTable of(String[] keys) {
+      var salt = 0;
+      while(!isCollisionFree(keys, salt)) {
+        salt++;
+      }
+      var bucketCount = Integer.highestOneBit(Math.max(1, keys.length));
+      for(var length = bucketCount << 1;; length <<= 1) {
+        var keyTable = create(keys, salt, bucketCount, length);
+        if (keyTable != null) {
+          return keyTable;
+        }
+      }
     }
 
-    void put(int index, String key, MethodHandle getter) {
-      var slot = -probe(key) - 1;
-      table[slot] = key;
-      table[slot + 1] = getter;
-      vec[index << 1] = key;
-      vec[(index << 1) + 1] = getter;
+    private static boolean isCollisionFree(String[] keys, int salt) {
+      var hashes = new HashSet<Integer>();
+      for(var key: keys) {
+        if (!hashes.add(hash(key, salt))) {
+          return false;
+        }
+      }
+      return true;
     }
 
-    MethodHandle getValue(String key) {
-      var slot = probe(key);
-      if (slot < 0) {
-        return null;
+    private static KeyTable create(String[] keys, int salt, int bucketCount, int length) {
+      var buckets = new ArrayList<List<Integer>>(bucketCount);
+      for(var i = 0; i < bucketCount; i++) {
+        buckets.add(new ArrayList<>());
+      }
+      for(var i = 0; i < keys.length; i++) {
+        buckets.get(hash(keys[i], salt) & (bucketCount - 1)).add(i);
+      }
+      var bucketIndexes = IntStream.range(0, bucketCount).boxed()
+          .sorted(Comparator.comparingInt(bucket -> -buckets.get(bucket).size()))
+          .toArray(Integer[]::new);
+
+      var table = new String[length];
+      var indexes = new int[length];
+      var seeds = new int[bucketCount];
+      var slots = new int[keys.length];
+      for(int bucketIndex: bucketIndexes) {
+        var bucket = buckets.get(bucketIndex);
+        if (bucket.isEmpty()) {
+          break;
+        }
+        var seed = findSeed(keys, salt, bucket, table, slots);
+        if (seed == -1) {
+          return null;
+        }
+        seeds[bucketIndex] = seed;
+        for(var i = 0; i < bucket.size(); i++) {
+          var index = bucket.get(i);
+          table[slots[i]] = keys[index];
+          indexes[slots[i]] = index;
+        }
       }
-      return (MethodHandle) table[slot + 1];
+      return new KeyTable(table, indexes, seeds, salt);
     }
 
-    boolean containsKey(String key) {
-      return probe(key) >= 0;
+    private static int findSeed(String[] keys, int salt, List<Integer> bucket, String[] table, int[] slots) {
+      loop: for(var seed = 0; seed < MAX_SEED; seed++) {
+        for(var i = 0; i < bucket.size(); i++) {
+          var slot = mix(hash(keys[bucket.get(i)], salt), seed) & (table.length - 1);
+          if (table[slot] != null) {
+            continue loop;
+          }
+          for(var j = 0; j < i; j++) {
+            if (slots[j] == slot) {
+              continue loop;
+            }
+          }
+          slots[i] = slot;
+        }
+        return seed;
+      }
+      return -1;
     }
 
-    int size() {
-      return vec.length >> 1;
+    private static int hash(String key, int salt) {
+      if (salt == 0) {
+        return key.hashCode();
+      }
+      var hash = salt;
+      for(var i = 0; i < key.length(); i++) {
+        hash = (hash ^ key.charAt(i)) * 0x01000193;
+      }
+      return hash;
     }
-    boolean isEmpty() {
-      return vec.length == 0;
+
+    private static int mix(int hash, int seed) {
+      var h = hash ^ (seed * 0x9E3779B9);
+      h ^= h >>> 16;
+      h *= 0x85EBCA6B;
+      h ^= h >>> 13;
+      h *= 0xC2B2AE35;
+      return h ^ (h >>> 16);
     }
 
-    String getKey(int index) {
-      return (String) vec[index << 1];
+    int indexOf(String key) {
+      var hash = hash(key, salt);
+      var slot = mix(hash, seeds[hash & (seeds.length - 1)]) & (table.length - 1);
+      if (!key.equals(table[slot])) {
+        return -1;
+      }
+      return indexes[slot];
     }
-    MethodHandle getValue(int index) {
-      return (MethodHandle) vec[(index << 1) + 1];
+  }
+
+  /**
+   * Describes a record class, combine a collision free hash table ({@code keyTable}) that stores
+   * an index ({@code slot}) for each record component name and several lists that store
+   * at the index ({@code slot}) the corresponding name, type ({@code Class}) and getter
+   * (as a MethodHandle typed with the record class and the record component type).
+   * It also stores the constructor as a method handle.
+   * The getters are resolved lazily, the first time they are used, see {@link Getters}.
+   *
+   * The same shape is used by {@link MapTrait}, {@link WithTrait} and {@link JSONTrait},
+   * so the reflection and the method handle creation are only done once per record class.
+   *
+   * <ol>
+   *  <li>to know the number of record components uses {@link #size()}
+   *  <li>to get the slot (index) from a key uses {@link #getSlot(String)}
+   *  <li>to get the getter from a key uses {@link #getValue(String)}
+   *  <li>to get the key from a slot (index) uses {@link #getKey(int)}
+   *  <li>to get the type from a slot (index) uses {@link #getType(int)}
+   *  <li>to get the getter from a slot (index) uses {@link #getValue(int)}
+   *  <li>to get the value of a record component from a slot (index) uses {@link #get(Object, int)}
+   *  <li>to get the value of a record component from a key uses {@link #get(Object, String, Object)}
+   *  <li>to get the values of all the record components uses {@link #copyTo(Object, Object[], int)}
+   *  <li>to get the getters typed with a primitive type from a slot (index) uses {@link #component(int)}
+   * </ol>
+   */
+  record RecordShape(KeyTable keyTable, String[] keys, Class<?>[] types, Getters getters, RecordAccessor accessor, MethodHandle constructor,
+                     ComponentImpl<?>[] components) {
+    RecordShape(String[] keys, Class<?>[] types, MethodHandle[] getters, MethodHandle constructor) {
+      this(keys, types, Getters.of(getters), constructor);
+    }
+    RecordShape(String[] keys, Class<?>[] types, Getters getters, MethodHandle constructor) {
+      this(KeyTable.of(keys), keys, types, getters, constructor);
+    }
+    RecordShape(KeyTable keyTable, String[] keys, Class<?>[] types, Getters getters, MethodHandle constructor) {
+      this(keyTable, keys, types, getters, new MethodHandleAccessor(keyTable, getters), constructor);
+    }
+    RecordShape(String[] keys, Class<?>[] types, Getters getters, RecordAccessor accessor, MethodHandle constructor) {
+      this(KeyTable.of(keys), keys, types, getters, accessor, constructor);
+    }
+    RecordShape(KeyTable keyTable, String[] keys, Class<?>[] types, Getters getters, RecordAccessor accessor, MethodHandle constructor) {
+      this(keyTable, keys, types, getters, accessor, constructor, new ComponentImpl<?>[keys.length]);
     }
 
-    private int probe(String key) {
-      var slot = (key.hashCode() & ((table.length >> 1) - 1)) << 1;
-      var k = table[slot];
-      if (k == null) {
-        return -slot - 1;
-      }
-      if (key.equals(k)) {
-        return slot;
-      }
-      return probe2(key, slot);
+    int getSlot(String key) {
+      return keyTable.indexOf(key);
     }
 
-    private int probe2(String key, int slot) {
-      for(;;) {
-        slot = (slot + 2) & (table.length - 1);
-        var k = table[slot];
-        if (k == null) {
-          return -slot - 1;
-        }
-        if (key.equals(k)) {
-          return slot;
-        }
+    MethodHandle getValue(String key) {
+      var slot = keyTable.indexOf(key);
+      if (slot == -1) {
+        return null;
       }
+      return getters.get(slot);
     }
-  }
 
-  private static final ClassValue<MapShape> SHAPE_MAP = new ClassValue<>() {
-    @Override
-    protected MapShape computeValue(Class<?> type) {
-      var components = type.getRecordComponents();
-      if (components == null) {
-        throw new IllegalStateException(type.getName() + " is not a record");
-      }
-      var lookup = teleport(type, MethodHandles.lookup());
+    boolean containsKey(String key) {
+      return keyTable.indexOf(key) != -1;
+    }
 
-      var shape = new MapShape(components.length);
-      for(var i = 0; i < components.length; i++) {
-        var component = components[i];
-        var getter = asMH(lookup, component).asType(methodType(Object.class, Object.class));
-        shape.put(i, component.getName(), getter);
-      }
-      return shape;
+    int size() {
+      return keys.length;
+    }
+    boolean isEmpty() {
+      return keys.length == 0;
     }
-  };
 
-  private static Lookup teleport(Class<?> type, Lookup localLookup) {
-    // add read access to the type module
-    localLookup.lookupClass().getModule().addReads(type.getModule());
+    String getKey(int index) {
+      return keys[index];
+    }
+    Class<?> getType(int index) {
+      return types[index];
+    }
+    MethodHandle getValue(int index) {
+      return getters.get(index);
+    }
 
-    // then teleport
-    try {
-      return MethodHandles.privateLookupIn(type, localLookup);
-    } catch (IllegalAccessException e) {
-      throw (IllegalAccessError) new IllegalAccessError("""
-          the module %s does not open the package %s to the module com.github.forax.recordutil
-          you can add this incantation to the module-info
-            module %s {
-                ...
-                opens %s to com.github.forax.recordutil;
-            }
-          """.formatted(type.getModule(), type.getPackageName(), type.getModule(), type.getPackageName())
-        ).initCause(e);
+    Object get(Object record, int index) {
+      return accessor.get(record, index);
+    }
+    Object get(Object record, String key, Object defaultValue) {
+      return accessor.get(record, key, defaultValue);
+    }
+    void copyTo(Object record, Object[] dst, int offset) {
+      accessor.copyTo(record, dst, offset);
     }
-  }
 
-  private static MethodHandle asMH(Lookup lookup, RecordComponent component) {
-    try {
-      return lookup.unreflect(component.getAccessor());
-    } catch (IllegalAccessException e) {
-      throw new AssertionError(e);
+    @SuppressWarnings("unchecked")
+    <R> ComponentImpl<R> component(int index) {
+      var component = components[index];
+      if (component == null) {
+        // a ComponentImpl only has final fields, so a racy initialization is safe
+        component = components[index] = ComponentImpl.of(this, index);
+      }
+      return (ComponentImpl<R>) component;
     }
   }
 
   /**
-   * Returns a hash/list describing the associating between a record component
-   * name and its corresponding getter as a method handle.
+   * The getters of the record components, each getter is resolved the first time it is used,
+   * so a record with a lot of record components only pays for the getters that are actually used.
    *
-   * @param type the class of the record
-   * @return the hash/list describing the record
-   */
-  static MapShape mapShape(Class<?> type) {
-    return SHAPE_MAP.get(type);
-  }
-
-
-  /**
-   * Combine a hash table ({@code table}) that stores an index ({@code slot}) for
-   * a String and a list that stores at the index ({@code slot})
-   * the corresponding MethodHandle.
-   * It also stores the constructor as a method handle.
+   * The getters are published using an {@link AtomicReferenceArray} so a getter resolved by a thread
+   * is fully initialized when seen by another thread. If several threads resolve the same getter
+   * at the same time, they all use the first getter published.
    *
    * <ol>
-   *  <li>to insert a pair uses {@link #put(int, String, MethodHandle)}
-   *  <li>to know the number of key/value uses {@link #size()}
-   *  <li>to get the slot (index) from a key uses {@link #getSlot(String)}
-   *  <li>to get the value from a slot (index) uses {@link #getValue(int)}
+   *  <li>to get the getter typed with the record class and the record component type uses {@link #get(int)}
+   *  <li>to get the getter typed with Object as parameter type and return type uses {@link #getObject(int)}
+   *  <li>to resolve all the getters upfront (see {@link RecordWarmer}) uses {@link #resolveAll()}
    * </ol>
    */
-  record WithShape(Object[] table, MethodHandle[] vec, MethodHandle constructor) {
-    WithShape(int capacity, MethodHandle constructor) {
-      this(new Object[capacity == 0? 2: Integer.highestOneBit(capacity) << 2], new MethodHandle[capacity], constructor);
+  static final class Getters {
+    private final IntFunction<MethodHandle> resolver;
+    private final AtomicReferenceArray<MethodHandle> getters;
+    private final AtomicReferenceArray<MethodHandle> objectGetters;
+
+    Getters(int size, IntFunction<MethodHandle> resolver) {
+      this.resolver = resolver;
+      this.getters = new AtomicReferenceArray<>(size);
+      this.objectGetters = new AtomicReferenceArray<>(size);
     }
 
-    void put(int index, String key, MethodHandle getter) {
-      var slot = -probe(key) - 1;
-      table[slot] = key;
-      table[slot + 1] = index;
-      vec[index] = getter;
+    static Getters of(MethodHandle[] getters) {
+      var array = getters.clone();
+      return new Getters(array.length, index -> array[index]);
     }
 
-    int getSlot(String key) {
-      var slot = probe(key);
-      if (slot < 0) {
-        return -1;
+    int size() {
+      return getters.length();
+    }
+
+    MethodHandle get(int index) {
+      var getter = getters.get(index);
+      if (getter != null) {
+        return getter;
       }
-      return (int) table[slot + 1];
+      return publish(getters, index, resolver.apply(index));
     }
 
-    int size() {
-      return vec.length;
+    MethodHandle getObject(int index) {
+      var getter = objectGetters.get(index);
+      if (getter != null) {
+        return getter;
+      }
+      return publish(objectGetters, index, get(index).asType(methodType(Object.class, Object.class)));
     }
 
-    MethodHandle getValue(int index) {
-      return vec[index];
+    boolean isResolved(int index) {
+      return getters.get(index) != null && objectGetters.get(index) != null;
+    }
+
+    void resolveAll() {
+      for(var i = 0; i < getters.length(); i++) {
+        getObject(i);  // also resolves get(i)
+      }
     }
 
-    private int probe(String key) {
-      var slot = (key.hashCode() & ((table.length >> 1) - 1)) << 1;
-      var k = table[slot];
-      if (k == null) {
-        return -slot - 1;
+    private static MethodHandle publish(AtomicReferenceArray<MethodHandle> array, int index, MethodHandle getter) {
+      var witness = array.compareAndExchange(index, null, getter);
+      return witness == null? getter: witness;
+    }
+  }
+
+  /**
+   * A {@link RecordAccessor} that calls the getters as method handles.
+   * Those method handles are not constants so the calls can not be inlined by the JIT.
+   *
+   * @see AccessorGenerator
+   */
+  record MethodHandleAccessor(KeyTable keyTable, Getters getters) implements RecordAccessor {
+    @Override
+    public Object get(Object record, int index) {
+      if (index < 0 || index >= getters.size()) {
+        throw new IllegalArgumentException("invalid index " + index);
       }
-      if (key.equals(k)) {
-        return slot;
+      try {
+        return getters.getObject(index).invokeExact(record);
+      } catch(RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new UndeclaredThrowableException(t);
       }
-      return probe2(key, slot);
     }
 
-    private int probe2(String key, int slot) {
-      for(;;) {
-        slot = (slot + 2) & (table.length - 1);
-        var k = table[slot];
-        if (k == null) {
-          return -slot - 1;
-        }
-        if (key.equals(k)) {
-          return slot;
-        }
+    @Override
+    public Object get(Object record, String name, Object defaultValue) {
+      var index = keyTable.indexOf(name);
+      if (index == -1) {
+        return defaultValue;
+      }
+      return get(record, index);
+    }
+
+    @Override
+    public void copyTo(Object record, Object[] dst, int offset) {
+      for(var i = 0; i < getters.size(); i++) {
+        dst[offset + i] = get(record, i);
       }
     }
   }
 
-  private static final ClassValue<WithShape> WITH_SHAPE_MAP = new ClassValue<>() {
+  /**
+   * The name of the system property that, if true, asks the values of the record components to be accessed
+   * using a class generated at runtime instead of using the method handles, see {@link AccessorGenerator}.
+   * The property is read each time a record class is described, so it only applies to the record classes
+   * that have not been described yet.
+   */
+  static final String HIDDEN_CLASS_PROPERTY = "com.github.forax.recordutil.hiddenclass";
+
+  private static final System.Logger LOGGER = System.getLogger(TraitImpl.class.getName());
+
+  private static final ClassValue<RecordShape> SHAPE_MAP = new ClassValue<>() {
     @Override
-    protected WithShape computeValue(Class<?> type) {
-      var components = type.getRecordComponents();
-      if (components == null) {
+    protected RecordShape computeValue(Class<?> type) {
+      if (!type.isRecord()) {
         throw new IllegalStateException(type.getName() + " is not a record");
       }
+      var registration = findRegistration(type);
+      if (registration != null) {
+        return descriptorShape(registration);
+      }
+      var components = type.getRecordComponents();
       var lookup = teleport(type, MethodHandles.lookup());
       var constructor = asConstructor(lookup, type, components)
           .asType(MethodType.genericMethodType(components.length))
           .asSpreader(Object[].class, components.length);
 
-      var shape = new WithShape(components.length, constructor);
+      var keys = new String[components.length];
+      var types = new Class<?>[components.length];
       for(var i = 0; i < components.length; i++) {
         var component = components[i];
-        var getter = asMH(lookup, component).asType(methodType(Object.class, Object.class));
-        shape.put(i, component.getName(), getter);
+        keys[i] = component.getName();
+        types[i] = component.getType();
       }
-      return shape;
+      var keyTable = KeyTable.of(keys);
+      var getters = new Getters(components.length, index -> asMH(lookup, components[index]));
+      var fallback = new MethodHandleAccessor(keyTable, getters);
+      var accessor = Boolean.getBoolean(HIDDEN_CLASS_PROPERTY)? generateAccessor(lookup, type, fallback): fallback;
+      return new RecordShape(keyTable, keys, types, getters, accessor, constructor);
     }
   };
 
-  private static MethodHandle asConstructor(Lookup lookup, Class<?> type, RecordComponent[] components) {
+  /**
+   * A record descriptor generated by the annotation processor and the lookup used to register it.
+   *
+   * @see RecordDescriptor
+   */
+  private record Registration(Lookup lookup, RecordDescriptor descriptor) {}
+
+  private static final ClassValue<AtomicReference<Registration>> REGISTRATION_MAP = new ClassValue<>() {
+    @Override
+    protected AtomicReference<Registration> computeValue(Class<?> type) {
+      return new AtomicReference<>();
+    }
+  };
+
+  private static final MethodHandle NEW_INSTANCE;
+  static {
     try {
-      return lookup.findConstructor(type, methodType(void.class, Arrays.stream(components).map(RecordComponent::getType).toArray(Class[]::new)));
-    } catch (IllegalAccessException | NoSuchMethodException e) {
+      NEW_INSTANCE = MethodHandles.lookup().findVirtual(RecordDescriptor.class, "newInstance", methodType(Object.class, Object[].class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
       throw new AssertionError(e);
     }
   }
 
   /**
-   * Returns a hash/list describing the associating between a record component
-   * name and its corresponding getter as a method handle and
-   * the constructor.
+   * Registers a descriptor, the lookup has already been verified.
    *
-   * @param type the class of the record
-   * @return the hash/list describing the record
+   * @param lookup a lookup with full privilege access in the package of the record
+   * @param descriptor the descriptor of the record
+   *
+   * @see RecordDescriptor#register(Lookup, RecordDescriptor)
    */
-  static WithShape withShape(Class<?> type) {
-    return WITH_SHAPE_MAP.get(type);
+  static void register(Lookup lookup, RecordDescriptor descriptor) {
+    REGISTRATION_MAP.get(descriptor.recordType()).set(new Registration(lookup, descriptor));
   }
 
+  private static Registration findRegistration(Class<?> type) {
+    var registration = REGISTRATION_MAP.get(type).get();
+    if (registration != null) {
+      return registration;
+    }
+    // check the class file exists first, so a record without descriptor does not pay for a ClassNotFoundException
+    if (!hasDescriptor(type)) {
+      return null;
+    }
+    // the static initializer of the descriptor class registers the descriptor
+    try {
+      Class.forName(type.getName() + "$$RecordDescriptor", true, type.getClassLoader());
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+    return REGISTRATION_MAP.get(type).get();
+  }
 
   /**
-   * Combine a hash table ({@code table}) that stores an index ({@code slot}) for
-   * a String and a list that stores at the index ({@code slot})
-   * the corresponding type ({@code Class}).
-   * It also stores the constructor as a method handle.
+   * Returns true if a record descriptor class generated by the annotation processor exists
+   * for a record class, the descriptor class is not loaded.
    *
-   * <ol>
-   *  <li>to insert a pair uses {@link #put(int, String, Class)}
-   *  <li>to know the number of key/value uses {@link #size()}
-   *  <li>to get the slot (index) from a key uses {@link #getSlot(String)}
-   *  <li>to get the type from a slot (index) uses {@link #getType(int)}
-   * </ol>
+   * @param type the class of the record
+   * @return true if a record descriptor class exists
    */
-  record JSONShape(Object[] table, Class<?>[] vec, MethodHandle constructor) {
-    JSONShape(int capacity, MethodHandle constructor) {
-      this(new Object[capacity == 0? 2: Integer.highestOneBit(capacity) << 2], new Class<?>[capacity], constructor);
-    }
+  static boolean hasDescriptor(Class<?> type) {
+    var packageName = type.getPackageName();
+    var simpleBinaryName = packageName.isEmpty()? type.getName(): type.getName().substring(packageName.length() + 1);
+    return type.getResource(simpleBinaryName + "$$RecordDescriptor.class") != null;
+  }
 
-    void put(int index, String key, Class<?> type) {
-      var slot = -probe(key) - 1;
-      table[slot] = key;
-      table[slot + 1] = index;
-      vec[index] = type;
-    }
+  private static RecordShape descriptorShape(Registration registration) {
+    var lookup = registration.lookup();
+    var descriptor = registration.descriptor();
+    var type = descriptor.recordType();
+    var keys = descriptor.names();
+    var types = descriptor.types();
+    var getters = new Getters(keys.length, index -> asGetter(lookup, type, keys[index], types[index]));
+    var constructor = NEW_INSTANCE.bindTo(descriptor);
+    // the lookup used to register the descriptor has the full privilege access, even across modules
+    var accessor = Boolean.getBoolean(HIDDEN_CLASS_PROPERTY)? generateAccessor(lookup, type, descriptor): descriptor;
+    return new RecordShape(keys, types, getters, accessor, constructor);
+  }
 
-    int getSlot(String key) {
-      var slot = probe(key);
-      if (slot < 0) {
-        return -1;
-      }
-      return (int) table[slot + 1];
+  private static MethodHandle asGetter(Lookup lookup, Class<?> type, String name, Class<?> componentType) {
+    try {
+      return lookup.findVirtual(type, name, methodType(componentType));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw (LinkageError) new LinkageError("invalid record descriptor for " + type.getName()).initCause(e);
     }
+  }
 
-    int size() {
-      return vec.length;
+  /**
+   * Generates a class that accesses the values of the record components, see {@link AccessorGenerator}.
+   * If the class can not be generated, a warning is logged and {@code fallback} is returned.
+   *
+   * @param lookup a lookup on the record class, it should have the full privilege access
+   * @param type the class of the record
+   * @param fallback the accessor to use if the class can not be generated
+   * @return the generated accessor or {@code fallback}
+   */
+  static RecordAccessor generateAccessor(Lookup lookup, Class<?> type, RecordAccessor fallback) {
+    if (!lookup.hasFullPrivilegeAccess()) {
+      // the lookup is teleported from another module, so a hidden class can not be defined
+      LOGGER.log(System.Logger.Level.WARNING, () -> """
+          the accessor of %s is not generated, the record is not in the module of com.github.forax.recordutil,
+          you can annotate the record with @RecordDescriptor.Generate to provide a lookup with the full privilege access
+          """.formatted(type.getName()));
+      return fallback;
     }
-
-    Class<?> getType(int index) {
-      return vec[index];
+    try {
+      return AccessorGenerator.generate(lookup, type, type.getRecordComponents());
+    } catch (LinkageError e) {
+      // by example, the module of the record does not read this module
+      LOGGER.log(System.Logger.Level.WARNING, "the accessor of " + type.getName() + " can not be generated", e);
+      return fallback;
     }
+  }
 
-    private int probe(String key) {
-      var slot = (key.hashCode() & ((table.length >> 1) - 1)) << 1;
-      var k = table[slot];
-      if (k == null) {
-        return -slot - 1;
-      }
-      if (key.equals(k)) {
-        return slot;
-      }
-      return probe2(key, slot);
+  private static Lookup teleport(Class<?> type, Lookup localLookup) {
+    // add read access to the type module
+    localLookup.lookupClass().getModule().addReads(type.getModule());
+
+    // then teleport
+    try {
+      return MethodHandles.privateLookupIn(type, localLookup);
+    } catch (IllegalAccessException e) {
+      throw (IllegalAccessError) new IllegalAccessError("""
+          the module %s does not open the package %s to the module com.github.forax.recordutil
+          you can add this incantation to the module-info
+            module %s {
+                ...
+                opens %s to com.github.forax.recordutil;
+            }
+          """.formatted(type.getModule(), type.getPackageName(), type.getModule(), type.getPackageName())
+        ).initCause(e);
     }
+  }
 
-    private int probe2(String key, int slot) {
-      for(;;) {
-        slot = (slot + 2) & (table.length - 1);
-        var k = table[slot];
-        if (k == null) {
-          return -slot - 1;
-        }
-        if (key.equals(k)) {
-          return slot;
-        }
-      }
+  private static MethodHandle asMH(Lookup lookup, RecordComponent component) {
+    try {
+      return lookup.unreflect(component.getAccessor());
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);
     }
   }
 
-  private static final ClassValue<JSONShape> JSON_SHAPE_MAP = new ClassValue<>() {
-    @Override
-    protected JSONShape computeValue(Class<?> type) {
-      var components = type.getRecordComponents();
-      if (components == null) {
-        throw new IllegalStateException(type.getName() + " is not a record");
-      }
-      var lookup = teleport(type, MethodHandles.lookup());
-      var constructor = asConstructor(lookup, type, components)
-          .asType(MethodType.genericMethodType(components.length))
-          .asSpreader(Object[].class, components.length);
+  private static MethodHandle asConstructor(Lookup lookup, Class<?> type, RecordComponent[] components) {
+    try {
+      return lookup.findConstructor(type, methodType(void.class, Arrays.stream(components).map(RecordComponent::getType).toArray(Class[]::new)));
+    } catch (IllegalAccessException | NoSuchMethodException e) {
+      throw new AssertionError(e);
+    }
+  }
 
-      var shape = new JSONShape(components.length, constructor);
-      for(var i = 0; i < components.length; i++) {
-        var component = components[i];
-        shape.put(i, component.getName(), component.getType());
-      }
-      return shape;
+  /**
+   * Returns the canonical constructor of a record class typed with the record component types,
+   * unlike {@link RecordShape#constructor()} that takes all the values as an array.
+   * The constructor is found using the lookup of the record descriptor if there is one.
+   *
+   * @param type the class of the record
+   * @return the canonical constructor of the record class
+   */
+  static MethodHandle canonicalConstructor(Class<?> type) {
+    var shape = recordShape(type);  // also registers the record descriptor if there is one
+    var registration = REGISTRATION_MAP.get(type).get();
+    var lookup = registration != null? registration.lookup(): teleport(type, MethodHandles.lookup());
+    try {
+      return lookup.findConstructor(type, methodType(void.class, shape.types()));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw (LinkageError) new LinkageError("no canonical constructor for " + type.getName()).initCause(e);
     }
-  };
+  }
 
   /**
-   * Returns a hash/list describing the associating between a record component
-   * name and its corresponding type (@code Class) and the constructor.
+   * Returns the shape describing a record class, the names, the types and the getters
+   * of the record components and the constructor.
    *
    * @param type the class of the record
-   * @return the hash/list describing the record
+   * @return the shape describing the record
    */
-  static JSONShape jsonShape(Class<?> type) {
-    return JSON_SHAPE_MAP.get(type);
+  static RecordShape recordShape(Class<?> type) {
+    return SHAPE_MAP.get(type);
   }
 }
@@ -1,9 +1,12 @@
 package com.github.forax.recordutil;
 
-import com.github.forax.recordutil.TraitImpl.WithShape;
-
-import java.lang.reflect.UndeclaredThrowableException;
+import java.util.List;
 import java.util.Objects;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongUnaryOperator;
+import java.util.function.UnaryOperator;
 
 import static java.util.Objects.requireNonNull;
 
@@ -34,46 +37,16 @@ import static java.util.Objects.requireNonNull;
  * </pre>
  *
  * <p>
- * This implementation is not very efficient, use {@link Wither} for a more cumbersome
- * but more performant implementation.
+ * For each record class, the code that creates a new record for a set of record component names
+ * is created the first time the names are used and cached, so calling {@code with} several times
+ * with the same names is fast. {@link Wither} is still a little faster because it can be
+ * stored in a static final field and be optimized for each call site.
  *
  * @param <R> type of the record
  *
  * @see Wither
  */
 public interface WithTrait<R> {
-  private Object[] initArray(WithShape shape) {
-    var array = new Object[shape.size()];
-    try {
-      for (var i = 0; i < shape.size(); i++) {
-        array[i] = shape.getValue(i).invokeExact((Object) this);
-      }
-      return array;
-    } catch (RuntimeException | Error e) {
-      throw e;
-    } catch (Throwable throwable) {
-      throw new UndeclaredThrowableException(throwable);
-    }
-  }
-
-  private static Object invokeArray(WithShape shape, Object[] array) {
-    try {
-      return shape.constructor().invokeExact(array);
-    } catch (RuntimeException | Error e) {
-      throw e;
-    } catch (Throwable throwable) {
-      throw new UndeclaredThrowableException(throwable);
-    }
-  }
-
-  private static int slot(WithShape shape, String name) {
-    var slot = shape.getSlot(name);
-    if (slot == -1) {
-      throw new IllegalStateException("record component " + name + "not found");
-    }
-    return slot;
-  }
-
   /**
    * Returns a new record instance with the record component named {@code name} updated
    * to the value {@code value}.
@@ -88,10 +61,7 @@ public interface WithTrait<R> {
   @SuppressWarnings("unchecked")
   default R with(String name, Object value) {
     requireNonNull(name, "name is null");
-    var shape = TraitImpl.withShape(getClass());
-    var array = initArray(shape);
-    array[slot(shape, name)] = value;
-    return (R) invokeArray(shape, array);
+    return (R) WithTraitImpl.updatePlans(getClass()).with(this, name, value);
   }
 
   /**
@@ -111,11 +81,7 @@ public interface WithTrait<R> {
   default R with(String name1, Object value1, String name2, Object value2) {
     requireNonNull(name1, "name1 is null");
     requireNonNull(name2, "name2 is null");
-    var shape = TraitImpl.withShape(getClass());
-    var array = initArray(shape);
-    array[slot(shape, name1)] = value1;
-    array[slot(shape, name2)] = value2;
-    return (R) invokeArray(shape, array);
+    return (R) WithTraitImpl.updatePlans(getClass()).with(this, name1, value1, name2, value2);
   }
 
   /**
@@ -139,12 +105,7 @@ public interface WithTrait<R> {
     requireNonNull(name1, "name1 is null");
     requireNonNull(name2, "name2 is null");
     requireNonNull(name3, "name3 is null");
-    var shape = TraitImpl.withShape(getClass());
-    var array = initArray(shape);
-    array[slot(shape, name1)] = value1;
-    array[slot(shape, name2)] = value2;
-    array[slot(shape, name3)] = value3;
-    return (R) invokeArray(shape, array);
+    return (R) WithTraitImpl.updatePlans(getClass()).with(this, name1, value1, name2, value2, name3, value3);
   }
 
   /**
@@ -171,13 +132,7 @@ public interface WithTrait<R> {
     requireNonNull(name2, "name2 is null");
     requireNonNull(name3, "name3 is null");
     requireNonNull(name4, "name4 is null");
-    var shape = TraitImpl.withShape(getClass());
-    var array = initArray(shape);
-    array[slot(shape, name1)] = value1;
-    array[slot(shape, name2)] = value2;
-    array[slot(shape, name3)] = value3;
-    array[slot(shape, name4)] = value4;
-    return (R) invokeArray(shape, array);
+    return (R) WithTraitImpl.updatePlans(getClass()).with(this, name1, value1, name2, value2, name3, value3, name4, value4);
   }
 
   /**
@@ -195,16 +150,483 @@ public interface WithTrait<R> {
     if ((pairs.length & 1) != 0) {
       throw new IllegalArgumentException("invalid arguments, it should be pairs of name, value");
     }
-    var shape = TraitImpl.withShape(getClass());
-    var array = initArray(shape);
+    var names = new String[pairs.length >> 1];
+    var values = new Object[names.length];
     for(var i = 0; i < pairs.length; i += 2) {
       var name = Objects.requireNonNull(pairs[i], "name " + i + " is null");
       if (!(name instanceof String key)) {
         throw new IllegalArgumentException("name " + i + " is not a String: " + name);
       }
-      var value = pairs[i + 1];
-      array[slot(shape, key)] = value;
+      names[i >> 1] = key;
+      values[i >> 1] = pairs[i + 1];
     }
-    return (R) invokeArray(shape, array);
+    return (R) WithTraitImpl.updatePlans(getClass()).with(this, names, values);
+  }
+
+  /**
+   * Returns a new record instance with the record component named {@code name} updated
+   * to the result of {@code function} called with the current value of the record component.
+   * <pre>
+   *   record Account(String owner, List&lt;String&gt; events) implements WithTrait&lt;Account&gt; {}
+   *   ...
+   *   account = account.withMapped("owner", String::strip);
+   * </pre>
+   *
+   * @param name a record component name
+   * @param function the function that computes the new value from the current value,
+   *                 the values of a primitive type are boxed
+   * @param <T> the type of the record component
+   * @return a new record instance with the record component value updated
+   *
+   * @throws NullPointerException if {@code name} or {@code function} is null or
+   *         if the result of {@code function} is null and the record component type is a primitive type
+   * @throws IllegalStateException if {@code name} is not the name of a record component
+   * @throws ClassCastException if the current value is not a {@code T} or
+   *         if the new value has not a class compatible with the record component type
+   */
+  @SuppressWarnings("unchecked")
+  default <T> R withMapped(String name, UnaryOperator<T> function) {
+    requireNonNull(name, "name is null");
+    requireNonNull(function, "function is null");
+    return (R) WithTraitImpl.updatePlans(getClass()).withMapped(this, name, function);
+  }
+
+  /**
+   * Returns a new record instance with the record component named {@code name}, typed {@code int},
+   * updated to the result of {@code function} called with the current value of the record component.
+   * The value is not boxed.
+   * <pre>
+   *   record Counter(String name, int count) implements WithTrait&lt;Counter&gt; {}
+   *   ...
+   *   counter = counter.withMappedInt("count", count -&gt; count + 1);
+   * </pre>
+   *
+   * @param name a record component name
+   * @param function the function that computes the new value from the current value
+   * @return a new record instance with the record component value updated
+   *
+   * @throws NullPointerException if {@code name} or {@code function} is null
+   * @throws IllegalStateException if {@code name} is not the name of a record component
+   * @throws ClassCastException if the record component is not typed {@code int}
+   */
+  @SuppressWarnings("unchecked")
+  default R withMappedInt(String name, IntUnaryOperator function) {
+    requireNonNull(name, "name is null");
+    requireNonNull(function, "function is null");
+    return (R) WithTraitImpl.updatePlans(getClass()).withMappedInt(this, name, function);
+  }
+
+  /**
+   * Returns a new record instance with the record component named {@code name}, typed {@code long},
+   * updated to the result of {@code function} called with the current value of the record component.
+   * The value is not boxed.
+   *
+   * @param name a record component name
+   * @param function the function that computes the new value from the current value
+   * @return a new record instance with the record component value updated
+   *
+   * @throws NullPointerException if {@code name} or {@code function} is null
+   * @throws IllegalStateException if {@code name} is not the name of a record component
+   * @throws ClassCastException if the record component is not typed {@code long}
+   */
+  @SuppressWarnings("unchecked")
+  default R withMappedLong(String name, LongUnaryOperator function) {
+    requireNonNull(name, "name is null");
+    requireNonNull(function, "function is null");
+    return (R) WithTraitImpl.updatePlans(getClass()).withMappedLong(this, name, function);
+  }
+
+  /**
+   * Returns a new record instance with the record component named {@code name}, typed {@code double},
+   * updated to the result of {@code function} called with the current value of the record component.
+   * The value is not boxed.
+   *
+   * @param name a record component name
+   * @param function the function that computes the new value from the current value
+   * @return a new record instance with the record component value updated
+   *
+   * @throws NullPointerException if {@code name} or {@code function} is null
+   * @throws IllegalStateException if {@code name} is not the name of a record component
+   * @throws ClassCastException if the record component is not typed {@code double}
+   */
+  @SuppressWarnings("unchecked")
+  default R withMappedDouble(String name, DoubleUnaryOperator function) {
+    requireNonNull(name, "name is null");
+    requireNonNull(function, "function is null");
+    return (R) WithTraitImpl.updatePlans(getClass()).withMappedDouble(this, name, function);
+  }
+
+  /**
+   * Returns a new record instance with the record component of a nested record designated by
+   * a path updated to the value {@code value}.
+   * A path is a list of record component names separated by dots, each record component
+   * except the last one has to be typed by a record class.
+   * <pre>
+   *   record Address(String street, String city) {}
+   *   record Customer(String name, Address address) {}
+   *   record Order(int id, Customer customer) implements WithTrait&lt;Order&gt; {}
+   *   ...
+   *   var order2 = order.withPath("customer.address.city", "Paris");
+   * </pre>
+   *
+   * Only the records along the path are re-created, the values of the other record components,
+   * by example {@code order.customer().name()}, are the same instances in the new record.
+   *
+   * @param path a list of record component names separated by dots
+   * @param value the new value of the last record component of the path
+   * @return a new record instance with the nested record component value updated
+   *
+   * @throws NullPointerException if {@code path} is null or if a record in the middle of the path is null
+   * @throws IllegalStateException if a name of the path is not the name of a record component or
+   *         if a record component in the middle of the path is not typed by a record class
+   * @throws ClassCastException if the value has not a class compatible with the last record component type
+   */
+  @SuppressWarnings("unchecked")
+  default R withPath(String path, Object value) {
+    requireNonNull(path, "path is null");
+    return (R) WithTraitImpl.updatePlans(getClass()).withPath(this, path, value);
+  }
+
+  /**
+   * A function that creates a new record instance from an existing record instance
+   * with one record component updated, resolved once.
+   *
+   * Unlike {@link #with(String, Object)} that finds the record component from its name at each call,
+   * an {@code Updater} is created once, by example in a static final field,
+   * and can be used to update the record component of several records.
+   * <pre>
+   *   private static final WithTrait.Updater&lt;Person, String&gt; NAME = WithTrait.updater(Person.class, "name", String.class);
+   *   ...
+   *   var ana = NAME.with(bob, "Ana");
+   * </pre>
+   *
+   * @param <R> the type of the record
+   * @param <T> the type of the record component
+   *
+   * @see #updater(Class, String, Class)
+   */
+  @FunctionalInterface
+  interface Updater<R, T> {
+    /**
+     * Returns a new record instance with the record component updated to the value {@code value}.
+     *
+     * @param record a record instance
+     * @param value the new value of the record component
+     * @return a new record instance with the record component value updated
+     *
+     * @throws NullPointerException if {@code record} is null or
+     *         if {@code value} is null and the record component type is a primitive type
+     * @throws ClassCastException if {@code record} is not an instance of the record class
+     */
+    R with(R record, T value);
+  }
+
+  /**
+   * A function that creates a new record instance from an existing record instance
+   * with two record components updated, resolved once.
+   *
+   * @param <R> the type of the record
+   * @param <T1> the type of the first record component
+   * @param <T2> the type of the second record component
+   *
+   * @see #updater(Class, String, Class, String, Class)
+   */
+  @FunctionalInterface
+  interface Updater2<R, T1, T2> {
+    /**
+     * Returns a new record instance with the two record components updated
+     * to the values {@code value1} and {@code value2}.
+     *
+     * @param record a record instance
+     * @param value1 the new value of the first record component
+     * @param value2 the new value of the second record component
+     * @return a new record instance with the record component values updated
+     *
+     * @throws NullPointerException if {@code record} is null or
+     *         if a value is null and its record component type is a primitive type
+     * @throws ClassCastException if {@code record} is not an instance of the record class
+     */
+    R with(R record, T1 value1, T2 value2);
+  }
+
+  /**
+   * An {@link Updater} of a record component typed {@code int}, the value is not boxed.
+   *
+   * @param <R> the type of the record
+   *
+   * @see #intUpdater(Class, String)
+   */
+  @FunctionalInterface
+  interface IntUpdater<R> {
+    /**
+     * Returns a new record instance with the record component updated to the value {@code value}.
+     *
+     * @param record a record instance
+     * @param value the new value of the record component
+     * @return a new record instance with the record component value updated
+     *
+     * @throws NullPointerException if {@code record} is null
+     * @throws ClassCastException if {@code record} is not an instance of the record class
+     */
+    R with(R record, int value);
+  }
+
+  /**
+   * An {@link Updater} of a record component typed {@code long}, the value is not boxed.
+   *
+   * @param <R> the type of the record
+   *
+   * @see #longUpdater(Class, String)
+   */
+  @FunctionalInterface
+  interface LongUpdater<R> {
+    /**
+     * Returns a new record instance with the record component updated to the value {@code value}.
+     *
+     * @param record a record instance
+     * @param value the new value of the record component
+     * @return a new record instance with the record component value updated
+     *
+     * @throws NullPointerException if {@code record} is null
+     * @throws ClassCastException if {@code record} is not an instance of the record class
+     */
+    R with(R record, long value);
+  }
+
+  /**
+   * An {@link Updater} of a record component typed {@code double}, the value is not boxed.
+   * <pre>
+   *   record State(double position, double speed) {}
+   *   private static final WithTrait.DoubleUpdater&lt;State&gt; POSITION = WithTrait.doubleUpdater(State.class, "position");
+   *   ...
+   *   state = POSITION.with(state, state.position() + state.speed() * dt);
+   * </pre>
+   *
+   * @param <R> the type of the record
+   *
+   * @see #doubleUpdater(Class, String)
+   */
+  @FunctionalInterface
+  interface DoubleUpdater<R> {
+    /**
+     * Returns a new record instance with the record component updated to the value {@code value}.
+     *
+     * @param record a record instance
+     * @param value the new value of the record component
+     * @return a new record instance with the record component value updated
+     *
+     * @throws NullPointerException if {@code record} is null
+     * @throws ClassCastException if {@code record} is not an instance of the record class
+     */
+    R with(R record, double value);
+  }
+
+  /**
+   * Returns an updater of a record component of a record class.
+   *
+   * @param recordType the class of the record
+   * @param name the name of a record component
+   * @param type the type of the record component
+   * @param <R> the type of the record
+   * @param <T> the type of the record component
+   * @return an updater of the record component
+   *
+   * @throws NullPointerException if {@code recordType}, {@code name} or {@code type} is null
+   * @throws IllegalStateException if {@code name} is not the name of a record component of the record
+   * @throws IllegalArgumentException if the record component is not typed by {@code type}
+   */
+  static <R extends Record, T> Updater<R, T> updater(Class<R> recordType, String name, Class<T> type) {
+    requireNonNull(recordType, "recordType is null");
+    requireNonNull(name, "name is null");
+    requireNonNull(type, "type is null");
+    return new WithTraitImpl.UpdaterImpl<>(WithTraitImpl.updater(recordType, new String[] { name }, new Class<?>[] { type }));
+  }
+
+  /**
+   * Returns an updater of two record components of a record class.
+   *
+   * @param recordType the class of the record
+   * @param name1 the name of the first record component
+   * @param type1 the type of the first record component
+   * @param name2 the name of the second record component
+   * @param type2 the type of the second record component
+   * @param <R> the type of the record
+   * @param <T1> the type of the first record component
+   * @param <T2> the type of the second record component
+   * @return an updater of the two record components
+   *
+   * @throws NullPointerException if {@code recordType}, a name or a type is null
+   * @throws IllegalStateException if a name is not the name of a record component of the record
+   * @throws IllegalArgumentException if {@code name1} and {@code name2} are the same or if a record component
+   *         is not typed by its corresponding type
+   */
+  static <R extends Record, T1, T2> Updater2<R, T1, T2> updater(Class<R> recordType, String name1, Class<T1> type1, String name2, Class<T2> type2) {
+    requireNonNull(recordType, "recordType is null");
+    requireNonNull(name1, "name1 is null");
+    requireNonNull(type1, "type1 is null");
+    requireNonNull(name2, "name2 is null");
+    requireNonNull(type2, "type2 is null");
+    return new WithTraitImpl.Updater2Impl<>(WithTraitImpl.updater(recordType, new String[] { name1, name2 }, new Class<?>[] { type1, type2 }));
+  }
+
+  /**
+   * Returns an updater of a record component typed {@code int} of a record class.
+   *
+   * @param recordType the class of the record
+   * @param name the name of a record component
+   * @param <R> the type of the record
+   * @return an updater of the record component
+   *
+   * @throws NullPointerException if {@code recordType} or {@code name} is null
+   * @throws IllegalStateException if {@code name} is not the name of a record component of the record
+   * @throws IllegalArgumentException if the record component is not typed {@code int}
+   */
+  static <R extends Record> IntUpdater<R> intUpdater(Class<R> recordType, String name) {
+    requireNonNull(recordType, "recordType is null");
+    requireNonNull(name, "name is null");
+    return new WithTraitImpl.IntUpdaterImpl<>(WithTraitImpl.updater(recordType, new String[] { name }, new Class<?>[] { int.class }));
+  }
+
+  /**
+   * Returns an updater of a record component typed {@code long} of a record class.
+   *
+   * @param recordType the class of the record
+   * @param name the name of a record component
+   * @param <R> the type of the record
+   * @return an updater of the record component
+   *
+   * @throws NullPointerException if {@code recordType} or {@code name} is null
+   * @throws IllegalStateException if {@code name} is not the name of a record component of the record
+   * @throws IllegalArgumentException if the record component is not typed {@code long}
+   */
+  static <R extends Record> LongUpdater<R> longUpdater(Class<R> recordType, String name) {
+    requireNonNull(recordType, "recordType is null");
+    requireNonNull(name, "name is null");
+    return new WithTraitImpl.LongUpdaterImpl<>(WithTraitImpl.updater(recordType, new String[] { name }, new Class<?>[] { long.class }));
+  }
+
+  /**
+   * Returns an updater of a record component typed {@code double} of a record class.
+   *
+   * @param recordType the class of the record
+   * @param name the name of a record component
+   * @param <R> the type of the record
+   * @return an updater of the record component
+   *
+   * @throws NullPointerException if {@code recordType} or {@code name} is null
+   * @throws IllegalStateException if {@code name} is not the name of a record component of the record
+   * @throws IllegalArgumentException if the record component is not typed {@code double}
+   */
+  static <R extends Record> DoubleUpdater<R> doubleUpdater(Class<R> recordType, String name) {
+    requireNonNull(recordType, "recordType is null");
+    requireNonNull(name, "name is null");
+    return new WithTraitImpl.DoubleUpdaterImpl<>(WithTraitImpl.updater(recordType, new String[] { name }, new Class<?>[] { double.class }));
+  }
+
+  /**
+   * Returns a list of new record instances created from each record of {@code records}
+   * with the record component named {@code name} updated to the value {@code value}.
+   *
+   * Unlike calling {@link #with(String, Object)} on each record, the record component
+   * is resolved only once for all the records of the same class.
+   * <pre>
+   *   List&lt;Product&gt; products = ...
+   *   List&lt;Product&gt; inStock = WithTrait.withAll(products, "stock", 100);
+   * </pre>
+   *
+   * @param records a list of records
+   * @param name a record component name
+   * @param value the new value of the record component {@code name}
+   * @param <R> the type of the records
+   * @return an unmodifiable list of new record instances, in the same order as {@code records}
+   *
+   * @throws NullPointerException if {@code records}, one of the records or {@code name} is null
+   * @throws IllegalStateException if {@code name} is not the name of a record component
+   * @throws ClassCastException if the value has not a class compatible with the record component type
+   *
+   * @see #parallelWithAll(List, String, Object)
+   */
+  static <R extends Record> List<R> withAll(List<? extends R> records, String name, Object value) {
+    requireNonNull(records, "records is null");
+    requireNonNull(name, "name is null");
+    return WithTraitImpl.withAll(records, type -> WithTraitImpl.batchKernel(type, name, value), false);
+  }
+
+  /**
+   * Returns a list of new record instances created from each record of {@code records}
+   * with the record component named {@code name} updated to the result of {@code function}
+   * called with the current value of the record component.
+   *
+   * Unlike calling {@link #with(String, Object)} on each record, the record component
+   * is resolved only once for all the records of the same class.
+   * <pre>
+   *   List&lt;Product&gt; products = ...
+   *   List&lt;Product&gt; repriced = WithTrait.withAllMapped(products, "price", (Double price) -&gt; price * 1.1);
+   * </pre>
+   *
+   * @param records a list of records
+   * @param name a record component name
+   * @param function the function that computes the new value from the current value,
+   *                 the values of a primitive type are boxed
+   * @param <R> the type of the records
+   * @param <T> the type of the current value
+   * @return an unmodifiable list of new record instances, in the same order as {@code records}
+   *
+   * @throws NullPointerException if {@code records}, one of the records, {@code name} or {@code function} is null
+   * @throws IllegalStateException if {@code name} is not the name of a record component
+   * @throws ClassCastException if the current value is not a {@code T} or
+   *         if a new value has not a class compatible with the record component type
+   *
+   * @see #parallelWithAllMapped(List, String, Function)
+   */
+  static <R extends Record, T> List<R> withAllMapped(List<? extends R> records, String name, Function<? super T, ?> function) {
+    requireNonNull(records, "records is null");
+    requireNonNull(name, "name is null");
+    requireNonNull(function, "function is null");
+    return WithTraitImpl.withAll(records, type -> WithTraitImpl.batchKernel(type, name, function), false);
+  }
+
+  /**
+   * Same as {@link #withAll(List, String, Object)} but the records are updated in parallel
+   * using the common fork/join pool.
+   *
+   * @param records a list of records
+   * @param name a record component name
+   * @param value the new value of the record component {@code name}
+   * @param <R> the type of the records
+   * @return an unmodifiable list of new record instances, in the same order as {@code records}
+   *
+   * @throws NullPointerException if {@code records}, one of the records or {@code name} is null
+   * @throws IllegalStateException if {@code name} is not the name of a record component
+   * @throws ClassCastException if the value has not a class compatible with the record component type
+   */
+  static <R extends Record> List<R> parallelWithAll(List<? extends R> records, String name, Object value) {
+    requireNonNull(records, "records is null");
+    requireNonNull(name, "name is null");
+    return WithTraitImpl.withAll(records, type -> WithTraitImpl.batchKernel(type, name, value), true);
+  }
+
+  /**
+   * Same as {@link #withAllMapped(List, String, Function)} but the records are updated in parallel
+   * using the common fork/join pool, so {@code function} may be called by several threads.
+   *
+   * @param records a list of records
+   * @param name a record component name
+   * @param function the function that computes the new value from the current value,
+   *                 the values of a primitive type are boxed
+   * @param <R> the type of the records
+   * @param <T> the type of the current value
+   * @return an unmodifiable list of new record instances, in the same order as {@code records}
+   *
+   * @throws NullPointerException if {@code records}, one of the records, {@code name} or {@code function} is null
+   * @throws IllegalStateException if {@code name} is not the name of a record component
+   * @throws ClassCastException if the current value is not a {@code T} or
+   *         if a new value has not a class compatible with the record component type
+   */
+  static <R extends Record, T> List<R> parallelWithAllMapped(List<? extends R> records, String name, Function<? super T, ?> function) {
+    requireNonNull(records, "records is null");
+    requireNonNull(name, "name is null");
+    requireNonNull(function, "function is null");
+    return WithTraitImpl.withAll(records, type -> WithTraitImpl.batchKernel(type, name, function), true);
   }
 }
@@ -0,0 +1,628 @@
+package com.github.forax.recordutil;
+
+import com.github.forax.recordutil.TraitImpl.RecordShape;
+import com.github.forax.recordutil.WithTrait.DoubleUpdater;
+import com.github.forax.recordutil.WithTrait.IntUpdater;
+import com.github.forax.recordutil.WithTrait.LongUpdater;
+import com.github.forax.recordutil.WithTrait.Updater;
+import com.github.forax.recordutil.WithTrait.Updater2;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongUnaryOperator;
+import java.util.function.UnaryOperator;
+
+import static java.lang.invoke.MethodHandles.collectArguments;
+import static java.lang.invoke.MethodHandles.filterArguments;
+import static java.lang.invoke.MethodHandles.filterReturnValue;
+import static java.lang.invoke.MethodHandles.insertArguments;
+import static java.lang.invoke.MethodHandles.permuteArguments;
+import static java.lang.invoke.MethodType.genericMethodType;
+import static java.lang.invoke.MethodType.methodType;
+
+class WithTraitImpl {
+  private WithTraitImpl() {
+    throw new AssertionError();
+  }
+
+  /**
+   * The update plans of a record class, an update plan is a method handle that takes a record
+   * and the new values of some record components and calls the constructor with the new values
+   * and the values of the other record components, like the method handles created by
+   * {@link WitherImpl}.
+   *
+   * The plans are created the first time a set of record component names is used
+   * and are cached by names, so a call to {@link WithTrait#with(String, Object)}
+   * is a hash lookup and a call to the plan.
+   *
+   * The plans are stored in a tree of {@link PlanNode}s with one level per name, so finding the plan
+   * of several names does not allocate, two calls with the same names in a different order
+   * use two different plans. If a name is used twice, the last value wins.
+   * Like {@link WitherImpl}, a plan calls the canonical constructor and the typed getters,
+   * the values are only converted from/to Object at the edges.
+   *
+   * The mapped plans, used by {@link WithTrait#withMapped(String, UnaryOperator)} and its primitive variants,
+   * are keyed by name and by operator type, they read the record component, call the operator and
+   * call the canonical constructor, so the primitive values are not boxed.
+   *
+   * The path plans, used by {@link WithTrait#withPath(String, Object)}, are keyed by path,
+   * they only re-create the records along the path, the other record components are copied
+   * from the existing records.
+   */
+  static final class UpdatePlans {
+    private final Class<?> recordType;
+    private final RecordShape shape;
+    private final PlanNode root = new PlanNode();
+    private final ConcurrentHashMap<MappedKey, MethodHandle> mappedPlans = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MethodHandle> pathPlans = new ConcurrentHashMap<>();
+
+    private record MappedKey(String name, Class<?> operatorType) {}
+
+    private UpdatePlans(Class<?> recordType, RecordShape shape) {
+      this.recordType = recordType;
+      this.shape = shape;
+    }
+
+    // (Object record, Object value)Object
+    MethodHandle plan(String name) {
+      var node = node(root, name);
+      var plan = node.plan;
+      if (plan == null) {
+        plan = node.plan = createPlan(new String[] { name });
+      }
+      return plan;
+    }
+
+    boolean hasPlan(String name) {
+      var node = root.children.get(name);
+      return node != null && node.plan != null;
+    }
+
+    // (Object record)Object
+    MethodHandle getter(String name) {
+      return shape.getters().getObject(slot(name));
+    }
+
+    private PlanNode node(PlanNode parent, String name) {
+      var node = parent.children.get(name);
+      if (node != null) {
+        return node;
+      }
+      slot(name);  // check the name first, so there is no node for an unknown name
+      return parent.children.computeIfAbsent(name, __ -> new PlanNode());
+    }
+
+    // (Object record, Object value0, ..., Object valueN)Object
+    private MethodHandle createPlan(String[] names) {
+      var slots = new int[names.length];
+      for(var i = 0; i < names.length; i++) {
+        slots[i] = slot(names[i]);
+      }
+      return typedPlan(recordType, shape, slots).asType(genericMethodType(1 + names.length));
+    }
+
+    private int slot(String name) {
+      var slot = shape.getSlot(name);
+      if (slot == -1) {
+        throw new IllegalStateException("record component " + name + " not found for record " + recordType.getName());
+      }
+      return slot;
+    }
+
+    Object with(Object record, String name, Object value) {
+      var plan = plan(name);
+      try {
+        return plan.invokeExact(record, value);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+
+    Object with(Object record, String name1, Object value1, String name2, Object value2) {
+      var node = node(node(root, name1), name2);
+      var plan = node.plan;
+      if (plan == null) {
+        plan = node.plan = createPlan(new String[] { name1, name2 });
+      }
+      try {
+        return plan.invokeExact(record, value1, value2);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+
+    Object with(Object record, String name1, Object value1, String name2, Object value2, String name3, Object value3) {
+      var node = node(node(node(root, name1), name2), name3);
+      var plan = node.plan;
+      if (plan == null) {
+        plan = node.plan = createPlan(new String[] { name1, name2, name3 });
+      }
+      try {
+        return plan.invokeExact(record, value1, value2, value3);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+
+    Object with(Object record, String name1, Object value1, String name2, Object value2, String name3, Object value3, String name4, Object value4) {
+      var node = node(node(node(node(root, name1), name2), name3), name4);
+      var plan = node.plan;
+      if (plan == null) {
+        plan = node.plan = createPlan(new String[] { name1, name2, name3, name4 });
+      }
+      try {
+        return plan.invokeExact(record, value1, value2, value3, value4);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+
+    // (Object record, operatorType operator)Object
+    private MethodHandle mappedPlan(String name, Class<?> operatorType) {
+      var key = new MappedKey(name, operatorType);
+      var plan = mappedPlans.get(key);
+      if (plan != null) {
+        return plan;
+      }
+      return mappedPlans.computeIfAbsent(key, __ -> createMappedPlan(name, operatorType));
+    }
+
+    private MethodHandle createMappedPlan(String name, Class<?> operatorType) {
+      var slot = slot(name);
+      var type = shape.getType(slot);
+      MethodHandle apply;
+      if (operatorType == UnaryOperator.class) {
+        apply = UNARY_OPERATOR_APPLY;
+      } else {
+        apply = operatorType == IntUnaryOperator.class? INT_UNARY_OPERATOR_APPLY:
+            operatorType == LongUnaryOperator.class? LONG_UNARY_OPERATOR_APPLY:
+            DOUBLE_UNARY_OPERATOR_APPLY;
+        if (apply.type().returnType() != type) {
+          throw new ClassCastException("the record component " + name + " is typed " + type.getName() + " not " + apply.type().returnType().getName());
+        }
+      }
+      var mapper = filterArguments(apply.asType(methodType(type, operatorType, type)), 1, shape.getValue(slot));
+      var mh = collectArguments(updater(recordType, new String[] { name }, new Class<?>[] { type }), 1, mapper);
+      mh = permuteArguments(mh, methodType(recordType, recordType, operatorType), 0, 1, 0);
+      return mh.asType(methodType(Object.class, Object.class, operatorType));
+    }
+
+    Object withMapped(Object record, String name, UnaryOperator<?> operator) {
+      var plan = mappedPlan(name, UnaryOperator.class);
+      try {
+        return plan.invokeExact(record, operator);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+
+    Object withMappedInt(Object record, String name, IntUnaryOperator operator) {
+      var plan = mappedPlan(name, IntUnaryOperator.class);
+      try {
+        return plan.invokeExact(record, operator);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+
+    Object withMappedLong(Object record, String name, LongUnaryOperator operator) {
+      var plan = mappedPlan(name, LongUnaryOperator.class);
+      try {
+        return plan.invokeExact(record, operator);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+
+    Object withMappedDouble(Object record, String name, DoubleUnaryOperator operator) {
+      var plan = mappedPlan(name, DoubleUnaryOperator.class);
+      try {
+        return plan.invokeExact(record, operator);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+
+    // (Object record, Object value)Object
+    private MethodHandle pathPlan(String path) {
+      var plan = pathPlans.get(path);
+      if (plan != null) {
+        return plan;
+      }
+      return pathPlans.computeIfAbsent(path, __ -> createPathPlan(path));
+    }
+
+    private MethodHandle createPathPlan(String path) {
+      var segments = path.split("\\.", -1);
+      var recordTypes = new Class<?>[segments.length];
+      var slots = new int[segments.length];
+      Class<?> type = recordType;
+      for(var i = 0; i < segments.length; i++) {
+        var segment = segments[i];
+        if (!type.isRecord()) {
+          throw new IllegalStateException("in the path " + path + ", " + type.getName() + " is not a record");
+        }
+        var shape = TraitImpl.recordShape(type);
+        var slot = shape.getSlot(segment);
+        if (slot == -1) {
+          throw new IllegalStateException("in the path " + path + ", record component " + segment + " not found for record " + type.getName());
+        }
+        recordTypes[i] = type;
+        slots[i] = slot;
+        type = shape.getType(slot);
+      }
+
+      // (leafRecord, leafType)leafRecord
+      var last = segments.length - 1;
+      var plan = updater(recordTypes[last], new String[] { segments[last] }, new Class<?>[] { type });
+      for(var i = last; --i >= 0;) {
+        // record.with(segment, plan(getter(record), value))
+        var valueType = plan.type().parameterType(1);
+        var mapper = filterArguments(plan, 0, TraitImpl.recordShape(recordTypes[i]).getValue(slots[i]));
+        var mh = collectArguments(updater(recordTypes[i], new String[] { segments[i] }, new Class<?>[] { recordTypes[i + 1] }), 1, mapper);
+        plan = permuteArguments(mh, methodType(recordTypes[i], recordTypes[i], valueType), 0, 0, 1);
+      }
+      return plan.asType(methodType(Object.class, Object.class, Object.class));
+    }
+
+    Object withPath(Object record, String path, Object value) {
+      var plan = pathPlan(path);
+      try {
+        return plan.invokeExact(record, value);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+
+    // names and values are two arrays of the same length
+    Object with(Object record, String[] names, Object[] values) {
+      var node = root;
+      for(var name: names) {
+        node = node(node, name);
+      }
+      var plan = node.spreadPlan;
+      if (plan == null) {
+        plan = node.spreadPlan = createPlan(names).asSpreader(Object[].class, names.length);
+      }
+      try {
+        return plan.invokeExact(record, values);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+  }
+
+  /**
+   * A node of the tree of plans, the path from the root to a node is the list of names of the plan.
+   * The plans are published using volatile fields, if several threads create the same plan
+   * at the same time, one of them is kept.
+   */
+  private static final class PlanNode {
+    private final ConcurrentHashMap<String, PlanNode> children = new ConcurrentHashMap<>();
+    // (Object record, Object value0, ..., Object valueN)Object
+    private volatile MethodHandle plan;
+    // (Object record, Object[] values)Object
+    private volatile MethodHandle spreadPlan;
+  }
+
+  private static final ClassValue<UpdatePlans> UPDATE_PLANS = new ClassValue<>() {
+    @Override
+    protected UpdatePlans computeValue(Class<?> type) {
+      return new UpdatePlans(type, TraitImpl.recordShape(type));
+    }
+  };
+
+  /**
+   * Returns the update plans of a record class.
+   *
+   * @param type the class of the record
+   * @return the update plans of the record class
+   */
+  static UpdatePlans updatePlans(Class<?> type) {
+    return UPDATE_PLANS.get(type);
+  }
+
+  /**
+   * Computes the update plans of a record class used by {@link WithTrait#with(String, Object)},
+   * one for each record component.
+   *
+   * @param type the class of a record
+   *
+   * @see RecordWarmer
+   */
+  static void warmUp(Class<?> type) {
+    var plans = UPDATE_PLANS.get(type);
+    var shape = TraitImpl.recordShape(type);
+    for(var i = 0; i < shape.size(); i++) {
+      plans.plan(shape.getKey(i));
+    }
+  }
+
+  private static final MethodHandle APPLY, UNARY_OPERATOR_APPLY, INT_UNARY_OPERATOR_APPLY, LONG_UNARY_OPERATOR_APPLY, DOUBLE_UNARY_OPERATOR_APPLY;
+  static {
+    var lookup = MethodHandles.publicLookup();
+    try {
+      APPLY = lookup.findVirtual(Function.class, "apply", methodType(Object.class, Object.class));
+      UNARY_OPERATOR_APPLY = APPLY.asType(methodType(Object.class, UnaryOperator.class, Object.class));
+      INT_UNARY_OPERATOR_APPLY = lookup.findVirtual(IntUnaryOperator.class, "applyAsInt", methodType(int.class, int.class));
+      LONG_UNARY_OPERATOR_APPLY = lookup.findVirtual(LongUnaryOperator.class, "applyAsLong", methodType(long.class, long.class));
+      DOUBLE_UNARY_OPERATOR_APPLY = lookup.findVirtual(DoubleUnaryOperator.class, "applyAsDouble", methodType(double.class, double.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Returns a method handle that takes a record and returns a new record
+   * with the record component {@code name} updated to {@code value}.
+   *
+   * @param type the class of the record
+   * @param name the name of the record component
+   * @param value the new value of the record component
+   * @return a method handle typed (Object)Object
+   */
+  static MethodHandle batchKernel(Class<?> type, String name, Object value) {
+    return insertArguments(updatePlans(type).plan(name), 1, value);
+  }
+
+  /**
+   * Returns a method handle that takes a record and returns a new record
+   * with the record component {@code name} updated to the result of {@code function}
+   * called with the current value of the record component.
+   *
+   * @param type the class of the record
+   * @param name the name of the record component
+   * @param function the function that computes the new value from the current value
+   * @return a method handle typed (Object)Object
+   */
+  static MethodHandle batchKernel(Class<?> type, String name, Function<?, ?> function) {
+    var plans = updatePlans(type);
+    var mapper = filterReturnValue(plans.getter(name), APPLY.bindTo(function));
+    var mh = filterArguments(plans.plan(name), 1, mapper);
+    return permuteArguments(mh, methodType(Object.class, Object.class), 0, 0);
+  }
+
+  /**
+   * Updates all the records of a list, the kernel of the class of the first record is created once
+   * and used for all the records of the same class.
+   * If the list contains records of different classes, the kernels of the other classes
+   * are created the first time a record of that class is seen and cached.
+   */
+  private static final class Batch {
+    private final Function<Class<?>, MethodHandle> kernelFactory;
+    private final Class<?> type;
+    private final MethodHandle kernel;
+    private final ConcurrentHashMap<Class<?>, MethodHandle> otherKernels = new ConcurrentHashMap<>();
+
+    private Batch(Function<Class<?>, MethodHandle> kernelFactory, Class<?> type) {
+      this.kernelFactory = kernelFactory;
+      this.type = type;
+      this.kernel = kernelFactory.apply(type);
+    }
+
+    private MethodHandle kernel(Class<?> type) {
+      if (type == this.type) {
+        return kernel;
+      }
+      var kernel = otherKernels.get(type);
+      if (kernel != null) {
+        return kernel;
+      }
+      return otherKernels.computeIfAbsent(type, kernelFactory);
+    }
+
+    private Object update(Object record) {
+      var kernel = kernel(record.getClass());
+      try {
+        return kernel.invokeExact(record);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+  }
+
+  /**
+   * Returns an unmodifiable list containing the records of {@code records} updated by the kernels
+   * created by {@code kernelFactory}. The array returned by {@link List#toArray()} is used to store
+   * the results, so there is no other allocation than the records themselves.
+   *
+   * @param records a list of records
+   * @param kernelFactory a function that creates the kernel (see {@link #batchKernel}) of a record class
+   * @param parallel true if the records are updated in parallel using the common fork/join pool
+   * @param <R> the type of the records
+   * @return an unmodifiable list of the updated records
+   */
+  @SuppressWarnings("unchecked")
+  static <R> List<R> withAll(List<? extends R> records, Function<Class<?>, MethodHandle> kernelFactory, boolean parallel) {
+    var array = records.toArray();
+    if (array.length == 0) {
+      return List.of();
+    }
+    var batch = new Batch(kernelFactory, array[0].getClass());
+    if (parallel) {
+      Arrays.parallelSetAll(array, i -> batch.update(array[i]));
+    } else {
+      for(var i = 0; i < array.length; i++) {
+        array[i] = batch.update(array[i]);
+      }
+    }
+    return (List<R>) Collections.unmodifiableList(Arrays.asList(array));
+  }
+
+  /**
+   * Returns a method handle that takes a record and the new values of the record components {@code names},
+   * typed with the record class and the record component types, and calls the canonical constructor.
+   * Unlike an update plan, the values are not boxed.
+   *
+   * @param recordType the class of the record
+   * @param names the names of the record components to update
+   * @param types the expected types of the record components
+   * @return a method handle typed (recordType, types...)recordType
+   *
+   * @throws IllegalStateException if a name is not the name of a record component
+   * @throws IllegalArgumentException if a name is used twice or if a record component is not typed
+   *         by the expected type
+   */
+  static MethodHandle updater(Class<?> recordType, String[] names, Class<?>[] types) {
+    var shape = TraitImpl.recordShape(recordType);
+    var seen = new boolean[shape.size()];
+    var slots = new int[names.length];
+    for(var i = 0; i < names.length; i++) {
+      var name = names[i];
+      var slot = shape.getSlot(name);
+      if (slot == -1) {
+        throw new IllegalStateException("record component " + name + " not found for record " + recordType.getName());
+      }
+      var componentType = shape.getType(slot);
+      if (componentType != types[i]) {
+        throw new IllegalArgumentException("the record component " + name + " is typed " + componentType.getName() + " not " + types[i].getName());
+      }
+      if (seen[slot]) {
+        throw new IllegalArgumentException("duplicate name " + name);
+      }
+      seen[slot] = true;
+      slots[i] = slot;
+    }
+    return typedPlan(recordType, shape, slots);
+  }
+
+  // (recordType, slotType0, ..., slotTypeN)recordType, if a slot is present twice, the last value wins
+  private static MethodHandle typedPlan(Class<?> recordType, RecordShape shape, int[] slots) {
+    var size = shape.size();
+    var reorder = new int[size];  // 0 means the value comes from the record
+    var parameterTypes = new Class<?>[1 + slots.length];
+    parameterTypes[0] = recordType;
+    for(var i = 0; i < slots.length; i++) {
+      reorder[slots[i]] = i + 1;
+      parameterTypes[i + 1] = shape.getType(slots[i]);
+    }
+    var filters = new MethodHandle[size];
+    for(var i = 0; i < size; i++) {
+      if (reorder[i] == 0) {
+        filters[i] = shape.getValue(i);
+      }
+    }
+    var mh = filterArguments(TraitImpl.canonicalConstructor(recordType), 0, filters);
+    return permuteArguments(mh, methodType(recordType, parameterTypes), reorder);
+  }
+
+  record UpdaterImpl<R, T>(MethodHandle kernel) implements Updater<R, T> {
+    UpdaterImpl {
+      kernel = kernel.asType(methodType(Object.class, Object.class, Object.class));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public R with(R record, T value) {
+      try {
+        return (R) kernel.invokeExact((Object) record, (Object) value);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+  }
+
+  record Updater2Impl<R, T1, T2>(MethodHandle kernel) implements Updater2<R, T1, T2> {
+    Updater2Impl {
+      kernel = kernel.asType(methodType(Object.class, Object.class, Object.class, Object.class));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public R with(R record, T1 value1, T2 value2) {
+      try {
+        return (R) kernel.invokeExact((Object) record, (Object) value1, (Object) value2);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+  }
+
+  record IntUpdaterImpl<R>(MethodHandle kernel) implements IntUpdater<R> {
+    IntUpdaterImpl {
+      kernel = kernel.asType(methodType(Object.class, Object.class, int.class));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public R with(R record, int value) {
+      try {
+        return (R) kernel.invokeExact((Object) record, value);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+  }
+
+  record LongUpdaterImpl<R>(MethodHandle kernel) implements LongUpdater<R> {
+    LongUpdaterImpl {
+      kernel = kernel.asType(methodType(Object.class, Object.class, long.class));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public R with(R record, long value) {
+      try {
+        return (R) kernel.invokeExact((Object) record, value);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+  }
+
+  record DoubleUpdaterImpl<R>(MethodHandle kernel) implements DoubleUpdater<R> {
+    DoubleUpdaterImpl {
+      kernel = kernel.asType(methodType(Object.class, Object.class, double.class));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public R with(R record, double value) {
+      try {
+        return (R) kernel.invokeExact((Object) record, value);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new UndeclaredThrowableException(throwable);
+      }
+    }
+  }
+}
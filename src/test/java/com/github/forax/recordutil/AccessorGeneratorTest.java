@@ -0,0 +1,151 @@
+package com.github.forax.recordutil;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AccessorGeneratorTest {
+  @Test
+  public void get() {
+    record Person(String name, int age) {}
+    var accessor = AccessorGenerator.generate(MethodHandles.lookup(), Person.class, Person.class.getRecordComponents());
+    var person = new Person("Bob", 42);
+    assertAll(
+        () -> assertEquals("Bob", accessor.get(person, 0)),
+        () -> assertEquals(42, accessor.get(person, 1))
+    );
+  }
+
+  @Test
+  public void getPrimitiveTypes() {
+    record Foo(boolean z, byte b, char c, short s, int i, long l, float f, double d) {}
+    var accessor = AccessorGenerator.generate(MethodHandles.lookup(), Foo.class, Foo.class.getRecordComponents());
+    var foo = new Foo(true, (byte) 1, 'c', (short) 2, 3, 4L, 5f, 6.0);
+    assertAll(
+        () -> assertEquals(true, accessor.get(foo, 0)),
+        () -> assertEquals((byte) 1, accessor.get(foo, 1)),
+        () -> assertEquals('c', accessor.get(foo, 2)),
+        () -> assertEquals((short) 2, accessor.get(foo, 3)),
+        () -> assertEquals(3, accessor.get(foo, 4)),
+        () -> assertEquals(4L, accessor.get(foo, 5)),
+        () -> assertEquals(5f, accessor.get(foo, 6)),
+        () -> assertEquals(6.0, accessor.get(foo, 7))
+    );
+  }
+
+  @Test
+  public void getInvalidIndex() {
+    record Point(int x, int y) {}
+    var accessor = AccessorGenerator.generate(MethodHandles.lookup(), Point.class, Point.class.getRecordComponents());
+    var point = new Point(1, 2);
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> accessor.get(point, -1)),
+        () -> assertThrows(IllegalArgumentException.class, () -> accessor.get(point, 2))
+    );
+  }
+
+  @Test
+  public void getWrongRecord() {
+    record Point(int x, int y) {}
+    record Person(String name, int age) {}
+    var accessor = AccessorGenerator.generate(MethodHandles.lookup(), Point.class, Point.class.getRecordComponents());
+    assertThrows(ClassCastException.class, () -> accessor.get(new Person("Bob", 42), 0));
+  }
+
+  @Test
+  public void getEmpty() {
+    record Empty() {}
+    var accessor = AccessorGenerator.generate(MethodHandles.lookup(), Empty.class, Empty.class.getRecordComponents());
+    assertThrows(IllegalArgumentException.class, () -> accessor.get(new Empty(), 0));
+  }
+
+  @Test
+  public void isHiddenClass() {
+    record Point(int x, int y) {}
+    var accessor = AccessorGenerator.generate(MethodHandles.lookup(), Point.class, Point.class.getRecordComponents());
+    assertTrue(accessor.getClass().isHidden());
+  }
+
+  @Test
+  public void lookupWithoutFullPrivilegeAccess() {
+    record Point(int x, int y) {}
+    var lookup = MethodHandles.lookup().dropLookupMode(Lookup.MODULE);
+    assertThrows(LinkageError.class, () -> AccessorGenerator.generate(lookup, Point.class, Point.class.getRecordComponents()));
+  }
+
+  @Test
+  public void generateTwice() {
+    record Point(int x, int y) {}
+    var accessor1 = AccessorGenerator.generate(MethodHandles.lookup(), Point.class, Point.class.getRecordComponents());
+    var accessor2 = AccessorGenerator.generate(MethodHandles.lookup(), Point.class, Point.class.getRecordComponents());
+    assertAll(
+        () -> assertNotSame(accessor1.getClass(), accessor2.getClass()),
+        () -> assertEquals(2, accessor2.get(new Point(1, 2), 1))
+    );
+  }
+
+  @Test
+  public void getPrivateRecord() {
+    var accessor = AccessorGenerator.generate(MethodHandles.lookup(), PrivatePoint.class, PrivatePoint.class.getRecordComponents());
+    assertEquals(2, accessor.get(new PrivatePoint(1, 2), 1));
+  }
+  private record PrivatePoint(int x, int y) {}
+
+  @Test
+  public void getByName() {
+    record Person(String name, int age) {}
+    var accessor = AccessorGenerator.generate(MethodHandles.lookup(), Person.class, Person.class.getRecordComponents());
+    var person = new Person("Bob", 42);
+    assertAll(
+        () -> assertEquals("Bob", accessor.get(person, "name", "default")),
+        () -> assertEquals(42, accessor.get(person, "age", "default")),
+        () -> assertEquals("default", accessor.get(person, "weight", "default")),
+        () -> assertNull(accessor.get(person, "", null))
+    );
+  }
+
+  @Test
+  public void getByNameSameHashCode() {
+    // "Aa" and "BB" have the same hash code
+    record Foo(int Aa, long BB, double c) {}
+    var accessor = AccessorGenerator.generate(MethodHandles.lookup(), Foo.class, Foo.class.getRecordComponents());
+    var foo = new Foo(1, 2L, 3.0);
+    assertAll(
+        () -> assertEquals(1, accessor.get(foo, "Aa", null)),
+        () -> assertEquals(2L, accessor.get(foo, "BB", null)),
+        () -> assertEquals(3.0, accessor.get(foo, "c", null)),
+        () -> assertNull(accessor.get(foo, "AaBB", null))
+    );
+  }
+
+  @Test
+  public void getByNameEmpty() {
+    record Empty() {}
+    var accessor = AccessorGenerator.generate(MethodHandles.lookup(), Empty.class, Empty.class.getRecordComponents());
+    assertEquals("default", accessor.get(new Empty(), "foo", "default"));
+  }
+
+  @Test
+  public void copyTo() {
+    record Foo(boolean z, byte b, char c, short s, int i, long l, float f, double d, String text) {}
+    var accessor = AccessorGenerator.generate(MethodHandles.lookup(), Foo.class, Foo.class.getRecordComponents());
+    var values = new Object[11];
+    accessor.copyTo(new Foo(true, (byte) 1, 'c', (short) 2, 3, 4L, 5f, 6.0, "7"), values, 1);
+    assertArrayEquals(new Object[] { null, true, (byte) 1, 'c', (short) 2, 3, 4L, 5f, 6.0, "7", null }, values);
+  }
+
+  @Test
+  public void copyToInvalid() {
+    record Point(int x, int y) {}
+    record Person(String name, int age) {}
+    var accessor = AccessorGenerator.generate(MethodHandles.lookup(), Point.class, Point.class.getRecordComponents());
+    assertAll(
+        () -> assertThrows(ClassCastException.class, () -> accessor.copyTo(new Person("Bob", 42), new Object[2], 0)),
+        () -> assertThrows(IndexOutOfBoundsException.class, () -> accessor.copyTo(new Point(1, 2), new Object[2], 1)),
+        () -> assertThrows(ArrayStoreException.class, () -> accessor.copyTo(new Point(1, 2), new String[2], 0))
+    );
+  }
+}
@@ -2,10 +2,16 @@ package com.github.forax.recordutil;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -167,4 +173,865 @@ public class MapTraitTest {
     expectedMap.put("age", 42);
     assertEquals(expectedMap.toString(), person.toString());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void component() {
+    record Person(String name, int age) implements MapTrait {}
+    var age = MapTrait.component(Person.class, "age");
+    var person = new Person("Bob", 42);
+    assertAll(
+        () -> assertEquals("age", age.name()),
+        () -> assertEquals(1, age.index()),
+        () -> assertEquals(int.class, age.type()),
+        () -> assertEquals(42, age.get(person)),
+        () -> assertEquals(42, age.getInt(person)),
+        () -> assertEquals(42L, age.getLong(person)),
+        () -> assertEquals(42.0, age.getDouble(person)),
+        () -> assertEquals(42, (int) age.getter().invokeExact(person))
+    );
+  }
+
+  @Test
+  public void componentFunctions() {
+    record Person(String name, int age) implements MapTrait {}
+    var name = MapTrait.component(Person.class, "name");
+    var age = MapTrait.component(Person.class, "age");
+    var persons = List.of(new Person("Bob", 42), new Person("Ana", 24));
+    assertAll(
+        () -> assertEquals(List.of("Bob", "Ana"), persons.stream().map(name.asFunction()).toList()),
+        () -> assertEquals(66, persons.stream().mapToInt(age.asToIntFunction()).sum()),
+        () -> assertEquals(66L, persons.stream().mapToLong(age.asToLongFunction()).sum()),
+        () -> assertEquals(66.0, persons.stream().mapToDouble(age.asToDoubleFunction()).sum())
+    );
+  }
+
+  @Test
+  public void componentNotConvertible() {
+    record Person(String name, double weight) implements MapTrait {}
+    var name = MapTrait.component(Person.class, "name");
+    var weight = MapTrait.component(Person.class, "weight");
+    var person = new Person("Bob", 72.5);
+    assertAll(
+        () -> assertThrows(ClassCastException.class, () -> name.getInt(person)),
+        () -> assertThrows(ClassCastException.class, () -> name.getDouble(person)),
+        () -> assertThrows(ClassCastException.class, () -> weight.getInt(person)),
+        () -> assertThrows(ClassCastException.class, () -> weight.getLong(person)),
+        () -> assertEquals(72.5, weight.getDouble(person))
+    );
+  }
+
+  @Test
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void componentWrongRecord() {
+    record Person(String name, int age) implements MapTrait {}
+    record Animal(String name) {}
+    var name = (MapTrait.Component) MapTrait.component(Person.class, "name");
+    assertAll(
+        () -> assertThrows(ClassCastException.class, () -> name.get(new Animal("Garfield"))),
+        () -> assertThrows(NullPointerException.class, () -> name.get(null))
+    );
+  }
+
+  @Test
+  public void componentUnknownOrNull() {
+    record Person(String name, int age) implements MapTrait {}
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.component(Person.class, "weight")),
+        () -> assertThrows(NullPointerException.class, () -> MapTrait.component(null, "name")),
+        () -> assertThrows(NullPointerException.class, () -> MapTrait.component(Person.class, null))
+    );
+  }
+
+  @Test
+  public void primitiveGetters() {
+    record Data(int i, long l, double d, boolean b, Integer boxed) implements MapTrait {}
+    var data = new Data(1, 2L, 3.0, true, 4);
+    assertAll(
+        () -> assertEquals(1, data.getInt("i")),
+        () -> assertEquals(1L, data.getLong("i")),
+        () -> assertEquals(1.0, data.getDouble("i")),
+        () -> assertEquals(2L, data.getLong("l")),
+        () -> assertEquals(2.0, data.getDouble("l")),
+        () -> assertEquals(3.0, data.getDouble("d")),
+        () -> assertTrue(data.getBoolean("b")),
+        () -> assertEquals(4, data.getInt("boxed")),
+        () -> assertEquals(4L, data.getLong("boxed")),
+        () -> assertEquals(1, data.getInt(0)),
+        () -> assertEquals(2L, data.getLong(1)),
+        () -> assertEquals(3.0, data.getDouble(2)),
+        () -> assertTrue(data.getBoolean(3)),
+        () -> assertEquals(4, data.getInt(4))
+    );
+  }
+
+  @Test
+  public void primitiveGettersNotConvertible() {
+    record Data(long l, double d, boolean b, String s) implements MapTrait {}
+    var data = new Data(2L, 3.0, true, "foo");
+    assertAll(
+        () -> assertThrows(ClassCastException.class, () -> data.getInt("l")),
+        () -> assertThrows(ClassCastException.class, () -> data.getLong("d")),
+        () -> assertThrows(ClassCastException.class, () -> data.getInt("b")),
+        () -> assertThrows(ClassCastException.class, () -> data.getBoolean("s")),
+        () -> assertThrows(ClassCastException.class, () -> data.getDouble(3))
+    );
+  }
+
+  @Test
+  public void primitiveGettersNullBoxed() {
+    record Data(Integer boxed) implements MapTrait {}
+    var data = new Data(null);
+    assertThrows(NullPointerException.class, () -> data.getInt("boxed"));
+  }
+
+  @Test
+  public void primitiveGettersUnknownKeyOrIndex() {
+    record Point(int x, int y) implements MapTrait {}
+    var point = new Point(1, 2);
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> point.getInt("z")),
+        () -> assertThrows(NullPointerException.class, () -> point.getInt(null)),
+        () -> assertThrows(IndexOutOfBoundsException.class, () -> point.getInt(2)),
+        () -> assertThrows(IndexOutOfBoundsException.class, () -> point.getLong(-1))
+    );
+  }
+
+  @Test
+  public void componentBoolean() {
+    record Flag(String name, boolean enabled) implements MapTrait {}
+    var enabled = MapTrait.component(Flag.class, "enabled");
+    var flags = List.of(new Flag("a", true), new Flag("b", false));
+    assertAll(
+        () -> assertTrue(enabled.getBoolean(flags.get(0))),
+        () -> assertEquals(List.of(flags.get(0)), flags.stream().filter(enabled.asPredicate()).toList()),
+        () -> assertSame(enabled, MapTrait.component(Flag.class, "enabled"))
+    );
+  }
+
+  @Test
+  public void snapshot() {
+    record Person(String name, int age) implements MapTrait {}
+    var snapshot = new Person("Bob", 42).snapshot();
+    assertAll(
+        () -> assertEquals(2, snapshot.size()),
+        () -> assertFalse(snapshot.isEmpty()),
+        () -> assertEquals("Bob", snapshot.get("name")),
+        () -> assertEquals(42, snapshot.get("age")),
+        () -> assertNull(snapshot.get("weight")),
+        () -> assertNull(snapshot.get(3)),
+        () -> assertEquals(12, snapshot.getOrDefault("weight", 12)),
+        () -> assertTrue(snapshot.containsKey("name")),
+        () -> assertFalse(snapshot.containsKey("weight")),
+        () -> assertTrue(snapshot.containsValue(42)),
+        () -> assertFalse(snapshot.containsValue("Ana")),
+        () -> assertEquals(List.of("name", "age"), List.copyOf(snapshot.keySet())),
+        () -> assertEquals(List.of("Bob", 42), List.copyOf(snapshot.values())),
+        () -> assertEquals(List.of(Map.entry("name", "Bob"), Map.entry("age", 42)), List.copyOf(snapshot.entrySet())),
+        () -> assertTrue(snapshot.entrySet().contains(Map.entry("age", 42))),
+        () -> assertEquals(Map.of("name", "Bob", "age", 42), snapshot),
+        () -> assertEquals(snapshot, Map.of("name", "Bob", "age", 42)),
+        () -> assertEquals(Map.of("name", "Bob", "age", 42).hashCode(), snapshot.hashCode()),
+        () -> assertEquals("{name=Bob, age=42}", snapshot.toString())
+    );
+  }
+
+  @Test
+  public void snapshotKeySetIterator() {
+    record Person(String name, int age) implements MapTrait {}
+    var iterator = new Person("Bob", 42).snapshot().keySet().iterator();
+    assertAll(
+        () -> assertEquals("name", iterator.next()),
+        () -> assertEquals("age", iterator.next()),
+        () -> assertFalse(iterator.hasNext()),
+        () -> assertThrows(NoSuchElementException.class, iterator::next),
+        () -> assertThrows(UnsupportedOperationException.class, iterator::remove)
+    );
+  }
+
+  @Test
+  public void snapshotIsImmutable() {
+    record Person(String name, int age) implements MapTrait {}
+    var snapshot = new Person("Bob", 42).snapshot();
+    assertAll(
+        () -> assertThrows(UnsupportedOperationException.class, () -> snapshot.put("name", "Ana")),
+        () -> assertThrows(UnsupportedOperationException.class, () -> snapshot.remove("name")),
+        () -> assertThrows(UnsupportedOperationException.class, snapshot::clear),
+        () -> assertThrows(UnsupportedOperationException.class, () -> snapshot.values().clear()),
+        () -> assertThrows(UnsupportedOperationException.class, () -> snapshot.keySet().remove("age")),
+        () -> assertThrows(UnsupportedOperationException.class, () -> snapshot.entrySet().iterator().next().setValue(3))
+    );
+  }
+
+  @Test
+  public void snapshotNullValue() {
+    record Person(String name, int age) implements MapTrait {}
+    var snapshot = new Person(null, 42).snapshot();
+    var expected = new HashMap<String, Object>();
+    expected.put("name", null);
+    expected.put("age", 42);
+    assertAll(
+        () -> assertTrue(snapshot.containsKey("name")),
+        () -> assertNull(snapshot.get("name")),
+        () -> assertEquals(expected, snapshot),
+        () -> assertEquals(expected, new HashMap<>(snapshot))
+    );
+  }
+
+  @Test
+  public void snapshotForEach() {
+    record Point(int x, int y) implements MapTrait {}
+    var snapshot = new Point(1, 2).snapshot();
+    var map = new LinkedHashMap<String, Object>();
+    snapshot.forEach(map::put);
+    assertEquals(List.of(Map.entry("x", 1), Map.entry("y", 2)), List.copyOf(map.entrySet()));
+  }
+
+  @Test
+  public void snapshotEmpty() {
+    record Empty() implements MapTrait {}
+    var snapshot = new Empty().snapshot();
+    assertAll(
+        () -> assertTrue(snapshot.isEmpty()),
+        () -> assertEquals(Map.of(), snapshot)
+    );
+  }
+
+  @Test
+  public void cursor() {
+    record Data(String name, int i, long l, double d, boolean b) implements MapTrait {}
+    var cursor = new Data("foo", 1, 2L, 3.0, true).cursor();
+    assertTrue(cursor.next());
+    assertAll(
+        () -> assertEquals(0, cursor.index()),
+        () -> assertEquals("name", cursor.key()),
+        () -> assertEquals(String.class, cursor.type()),
+        () -> assertEquals("foo", cursor.value()),
+        () -> assertThrows(ClassCastException.class, cursor::getInt)
+    );
+    assertTrue(cursor.next());
+    assertAll(
+        () -> assertEquals(1, cursor.index()),
+        () -> assertEquals("i", cursor.key()),
+        () -> assertEquals(1, cursor.value()),
+        () -> assertEquals(1, cursor.getInt()),
+        () -> assertEquals(1L, cursor.getLong()),
+        () -> assertEquals(1.0, cursor.getDouble())
+    );
+    assertTrue(cursor.next());
+    assertEquals(2L, cursor.getLong());
+    assertTrue(cursor.next());
+    assertEquals(3.0, cursor.getDouble());
+    assertTrue(cursor.next());
+    assertTrue(cursor.getBoolean());
+    assertFalse(cursor.next());
+    assertFalse(cursor.next());
+    assertThrows(IllegalStateException.class, cursor::key);
+  }
+
+  @Test
+  public void cursorReset() {
+    record Point(int x, int y) implements MapTrait {}
+    record Person(String name, int age) implements MapTrait {}
+    var cursor = new Point(1, 2).cursor();
+    assertThrows(IllegalStateException.class, cursor::value);
+    var sum = 0;
+    while(cursor.next()) {
+      sum += cursor.getInt();
+    }
+    assertSame(cursor, cursor.reset(new Point(3, 4)));
+    while(cursor.next()) {
+      sum += cursor.getInt();
+    }
+    assertEquals(10, sum);
+    cursor.reset(new Person("Bob", 42));
+    var keys = new ArrayList<String>();
+    while(cursor.next()) {
+      keys.add(cursor.key());
+    }
+    assertEquals(List.of("name", "age"), keys);
+    assertThrows(NullPointerException.class, () -> cursor.reset(null));
+  }
+
+  @Test
+  public void cursorEmpty() {
+    record Empty() implements MapTrait {}
+    var cursor = new Empty().cursor();
+    assertFalse(cursor.next());
+    assertThrows(IllegalStateException.class, cursor::index);
+  }
+
+  @Test
+  public void forEachIndexed() {
+    record Person(String name, int age) implements MapTrait {}
+    var person = new Person("Bob", 42);
+    var list = new ArrayList<String>();
+    person.forEachIndexed((index, key, value) -> list.add(index + ":" + key + "=" + value));
+    assertEquals(List.of("0:name=Bob", "1:age=42"), list);
+    assertThrows(NullPointerException.class, () -> person.forEachIndexed(null));
+  }
+
+  @Test
+  public void equalsOfMapSameRecordClass() {
+    record Data(String s, byte b, short sh, char c, int i, long l, float f, double d, boolean z) implements MapTrait {
+      @Override
+      public boolean equals(Object o) {
+        return MapTrait.super.equalsOfMap(o);
+      }
+
+      @Override
+      public int hashCode() {
+        return MapTrait.super.hashCodeOfMap();
+      }
+    }
+    var data = new Data("foo", (byte) 1, (short) 2, 'c', 3, 4L, 5f, 6.0, true);
+    assertAll(
+        () -> assertEquals(data, new Data("foo", (byte) 1, (short) 2, 'c', 3, 4L, 5f, 6.0, true)),
+        () -> assertNotEquals(data, new Data("bar", (byte) 1, (short) 2, 'c', 3, 4L, 5f, 6.0, true)),
+        () -> assertNotEquals(data, new Data("foo", (byte) 0, (short) 2, 'c', 3, 4L, 5f, 6.0, true)),
+        () -> assertNotEquals(data, new Data("foo", (byte) 1, (short) 0, 'c', 3, 4L, 5f, 6.0, true)),
+        () -> assertNotEquals(data, new Data("foo", (byte) 1, (short) 2, 'd', 3, 4L, 5f, 6.0, true)),
+        () -> assertNotEquals(data, new Data("foo", (byte) 1, (short) 2, 'c', 0, 4L, 5f, 6.0, true)),
+        () -> assertNotEquals(data, new Data("foo", (byte) 1, (short) 2, 'c', 3, 0L, 5f, 6.0, true)),
+        () -> assertNotEquals(data, new Data("foo", (byte) 1, (short) 2, 'c', 3, 4L, 0f, 6.0, true)),
+        () -> assertNotEquals(data, new Data("foo", (byte) 1, (short) 2, 'c', 3, 4L, 5f, 0.0, true)),
+        () -> assertNotEquals(data, new Data("foo", (byte) 1, (short) 2, 'c', 3, 4L, 5f, 6.0, false)),
+        () -> assertEquals(data, data.snapshot()),
+        () -> assertEquals(data.snapshot(), data)
+    );
+  }
+
+  @Test
+  public void equalsOfMapFloatingPoint() {
+    record Value(double d, float f) implements MapTrait {
+      @Override
+      public boolean equals(Object o) {
+        return MapTrait.super.equalsOfMap(o);
+      }
+
+      @Override
+      public int hashCode() {
+        return MapTrait.super.hashCodeOfMap();
+      }
+    }
+    assertAll(
+        () -> assertEquals(new Value(Double.NaN, Float.NaN), new Value(Double.NaN, Float.NaN)),
+        () -> assertNotEquals(new Value(0.0, 0f), new Value(-0.0, 0f)),
+        () -> assertNotEquals(new Value(0.0, 0f), new Value(0.0, -0f)),
+        () -> assertEquals(Map.of("d", Double.NaN, "f", Float.NaN).equals(new Value(Double.NaN, Float.NaN)),
+            new Value(Double.NaN, Float.NaN).equals(Map.of("d", Double.NaN, "f", Float.NaN)))
+    );
+  }
+
+  @Test
+  public void equalsOfMapOtherMapTrait() {
+    record Person(String name, int age) implements MapTrait {
+      @Override
+      public boolean equals(Object o) {
+        return MapTrait.super.equalsOfMap(o);
+      }
+
+      @Override
+      public int hashCode() {
+        return MapTrait.super.hashCodeOfMap();
+      }
+    }
+    record Employee(String name, int age) implements MapTrait {}
+    record Reversed(int age, String name) implements MapTrait {}
+    assertAll(
+        () -> assertEquals(new Person("Bob", 42), new Employee("Bob", 42)),
+        () -> assertNotEquals(new Person("Bob", 42), new Employee("Bob", 24)),
+        () -> assertEquals(new Person("Bob", 42), new Reversed(42, "Bob")),
+        () -> assertNotEquals(new Person("Bob", 42), new Reversed(24, "Bob"))
+    );
+  }
+
+  @Test
+  public void equalsOfMapSizeAndNullValues() {
+    record Person(String name, int age) implements MapTrait {
+      @Override
+      public boolean equals(Object o) {
+        return MapTrait.super.equalsOfMap(o);
+      }
+
+      @Override
+      public int hashCode() {
+        return MapTrait.super.hashCodeOfMap();
+      }
+    }
+    var withNull = new HashMap<String, Object>();
+    withNull.put("name", null);
+    withNull.put("age", 42);
+    var otherKey = new HashMap<String, Object>();
+    otherKey.put("weight", null);
+    otherKey.put("age", 42);
+    assertAll(
+        () -> assertNotEquals(new Person("Bob", 42), Map.of("name", "Bob", "age", 42, "weight", 72)),
+        () -> assertNotEquals(new Person("Bob", 42), Map.of("name", "Bob")),
+        () -> assertEquals(new Person(null, 42), withNull),
+        () -> assertNotEquals(new Person(null, 42), otherKey),
+        () -> assertEquals(new Person(null, 42), new Person(null, 42)),
+        () -> assertNotEquals(new Person(null, 42), new Person("Bob", 42))
+    );
+  }
+
+  @Test
+  public void hashCodeOfMapAllTypes() {
+    record Data(String s, byte b, short sh, char c, int i, long l, float f, double d, boolean z, Object o) implements MapTrait {}
+    var data = new Data("foo", (byte) 1, (short) 2, 'c', 3, 4L, 5f, 6.0, true, null);
+    var expected = new HashMap<String, Object>();
+    expected.put("s", "foo");
+    expected.put("b", (byte) 1);
+    expected.put("sh", (short) 2);
+    expected.put("c", 'c');
+    expected.put("i", 3);
+    expected.put("l", 4L);
+    expected.put("f", 5f);
+    expected.put("d", 6.0);
+    expected.put("z", true);
+    expected.put("o", null);
+    assertEquals(expected.hashCode(), data.hashCodeOfMap());
+  }
+
+  @Test
+  public void hashCodeOfMapEmpty() {
+    record Empty() implements MapTrait {}
+    assertEquals(Map.of().hashCode(), new Empty().hashCodeOfMap());
+  }
+
+  @Test
+  public void toStringOfMapAllTypes() {
+    record Data(String s, byte b, short sh, char c, int i, long l, float f, double d, boolean z, Object o) implements MapTrait {}
+    var data = new Data("foo", (byte) 1, (short) 2, 'c', 3, 4L, 5f, 6.0, true, null);
+    assertEquals("{s=foo, b=1, sh=2, c=c, i=3, l=4, f=5.0, d=6.0, z=true, o=null}", data.toStringOfMap());
+  }
+
+  @Test
+  public void toStringOfMapEmpty() {
+    record Empty() implements MapTrait {}
+    assertEquals("{}", new Empty().toStringOfMap());
+  }
+
+  @Test
+  public void toStringOfMapPrivateComponentType() {
+    record Secret(int value) {
+      @Override
+      public String toString() {
+        return "secret";
+      }
+    }
+    record Box(Secret secret) implements MapTrait {}
+    assertEquals("{secret=secret}", new Box(new Secret(3)).toStringOfMap());
+  }
+
+  @Test
+  public void appendMapToStringBuilder() {
+    record Data(String s, byte b, short sh, char c, int i, long l, float f, double d, boolean z, Object o) implements MapTrait {}
+    var data = new Data("foo", (byte) 1, (short) 2, 'c', 3, 4L, 5f, 6.0, true, null);
+    var builder = new StringBuilder("data: ");
+    assertSame(builder, data.appendMapTo(builder));
+    assertEquals("data: " + data.toStringOfMap(), builder.toString());
+  }
+
+  @Test
+  public void appendMapToAppendable() throws IOException {
+    record Person(String name, int age) implements MapTrait {}
+    var writer = new StringWriter();
+    assertSame(writer, new Person("Bob", 42).appendMapTo(writer));
+    assertEquals("{name=Bob, age=42}", writer.toString());
+  }
+
+  @Test
+  public void appendMapToEmpty() throws IOException {
+    record Empty() implements MapTrait {}
+    assertAll(
+        () -> assertEquals("{}", new Empty().appendMapTo(new StringBuilder()).toString()),
+        () -> assertEquals("{}", new Empty().appendMapTo(new StringWriter()).toString())
+    );
+  }
+
+  @Test
+  public void appendMapToNull() {
+    record Person(String name, int age) implements MapTrait {}
+    var person = new Person("Bob", 42);
+    assertAll(
+        () -> assertThrows(NullPointerException.class, () -> person.appendMapTo((StringBuilder) null)),
+        () -> assertThrows(NullPointerException.class, () -> person.appendMapTo((Appendable) null))
+    );
+  }
+
+  @Test
+  public void copyValuesTo() {
+    record Person(String name, int age) implements MapTrait {}
+    var array = new Object[4];
+    assertEquals(2, new Person("Bob", 42).copyValuesTo(array, 1));
+    assertArrayEquals(new Object[] { null, "Bob", 42, null }, array);
+    assertThrows(IndexOutOfBoundsException.class, () -> new Person("Bob", 42).copyValuesTo(array, 3));
+  }
+
+  @Test
+  public void copyPrimitivesTo() {
+    record Data(int i1, double d1, String s, long l, int i2, double d2) implements MapTrait {}
+    var data = new Data(1, 2.0, "foo", 3L, 4, 5.0);
+    var ints = new int[3];
+    var longs = new long[1];
+    var doubles = new double[2];
+    assertAll(
+        () -> assertEquals(2, data.copyIntsTo(ints, 1)),
+        () -> assertArrayEquals(new int[] { 0, 1, 4 }, ints),
+        () -> assertEquals(1, data.copyLongsTo(longs, 0)),
+        () -> assertArrayEquals(new long[] { 3L }, longs),
+        () -> assertEquals(2, data.copyDoublesTo(doubles, 0)),
+        () -> assertArrayEquals(new double[] { 2.0, 5.0 }, doubles),
+        () -> assertThrows(IndexOutOfBoundsException.class, () -> data.copyDoublesTo(doubles, 1)),
+        () -> assertThrows(NullPointerException.class, () -> data.copyIntsTo(null, 0))
+    );
+  }
+
+  @Test
+  public void copyColumnsTo() {
+    record Data(String s, byte b, short sh, char c, int i, long l, float f, double d, boolean z) implements MapTrait {}
+    var records = List.of(
+        new Data("foo", (byte) 1, (short) 2, 'a', 3, 4L, 5f, 6.0, true),
+        new Data("bar", (byte) 7, (short) 8, 'b', 9, 10L, 11f, 12.0, false));
+    var strings = new String[2];
+    var bytes = new byte[2];
+    var shorts = new short[2];
+    var chars = new char[2];
+    var ints = new int[2];
+    var longs = new long[2];
+    var floats = new float[3];
+    var doubles = new double[2];
+    var booleans = new boolean[2];
+    MapTrait.copyColumnsTo(records, strings, bytes, shorts, chars, ints, longs, floats, doubles, booleans);
+    assertAll(
+        () -> assertArrayEquals(new String[] { "foo", "bar" }, strings),
+        () -> assertArrayEquals(new byte[] { 1, 7 }, bytes),
+        () -> assertArrayEquals(new short[] { 2, 8 }, shorts),
+        () -> assertArrayEquals(new char[] { 'a', 'b' }, chars),
+        () -> assertArrayEquals(new int[] { 3, 9 }, ints),
+        () -> assertArrayEquals(new long[] { 4L, 10L }, longs),
+        () -> assertArrayEquals(new float[] { 5f, 11f, 0f }, floats),
+        () -> assertArrayEquals(new double[] { 6.0, 12.0 }, doubles),
+        () -> assertArrayEquals(new boolean[] { true, false }, booleans)
+    );
+  }
+
+  @Test
+  public void copyColumnsToSkipNullColumns() {
+    record Point(int x, int y) implements MapTrait {}
+    var ys = new int[2];
+    MapTrait.copyColumnsTo(List.of(new Point(1, 2), new Point(3, 4)), null, ys);
+    assertArrayEquals(new int[] { 2, 4 }, ys);
+  }
+
+  @Test
+  public void copyColumnsToInvalid() {
+    record Point(int x, int y) implements MapTrait {}
+    record Point2(int x, int y) implements MapTrait {}
+    var points = List.of(new Point(1, 2), new Point(3, 4));
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.copyColumnsTo(points, new int[2])),
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.copyColumnsTo(points, new int[2], new long[2])),
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.copyColumnsTo(points, new int[2], new Object[2])),
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.copyColumnsTo(points, new int[2], "foo")),
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.copyColumnsTo(List.of(new Point(1, 2), new Point2(3, 4)), new int[2], new int[2])),
+        () -> assertThrows(IndexOutOfBoundsException.class, () -> MapTrait.copyColumnsTo(points, new int[1], new int[2])),
+        () -> assertThrows(NullPointerException.class, () -> MapTrait.copyColumnsTo(null, new int[2], new int[2]))
+    );
+  }
+
+  @Test
+  public void copyColumnsToReferenceColumns() {
+    record Person(String name, int age) implements MapTrait {}
+    var persons = List.of(new Person("Bob", 1));
+    var names = new Object[1];
+    MapTrait.copyColumnsTo(persons, names, null);
+    assertAll(
+        () -> assertArrayEquals(new Object[] { "Bob" }, names),
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.copyColumnsTo(persons, new Integer[1], new int[1])),
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.copyColumnsTo(persons, new CharSequence[1], new Integer[1]))
+    );
+  }
+
+  @Test
+  public void copyColumnsToNothingWrittenIfInvalid() {
+    record Point(int x, int y) implements MapTrait {}
+    record Point2(int x, int y) implements MapTrait {}
+    var xs = new int[3];
+    var ys = new int[3];
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class,
+            () -> MapTrait.copyColumnsTo(List.of(new Point(1, 2), new Point(3, 4), new Point2(5, 6)), xs, ys)),
+        () -> assertArrayEquals(new int[3], xs),
+        () -> assertArrayEquals(new int[3], ys)
+    );
+  }
+
+  @Test
+  public void projection() {
+    record Person(String name, int age, String address) implements MapTrait {}
+    var projection = MapTrait.projection(Person.class, "age", "name");
+    var view = projection.apply(new Person("Bob", 42, "Paris"));
+    assertAll(
+        () -> assertEquals(List.of("age", "name"), projection.keys()),
+        () -> assertEquals(2, view.size()),
+        () -> assertEquals(42, view.get("age")),
+        () -> assertEquals("Bob", view.get("name")),
+        () -> assertNull(view.get("address")),
+        () -> assertEquals("Lyon", view.getOrDefault("address", "Lyon")),
+        () -> assertTrue(view.containsKey("name")),
+        () -> assertFalse(view.containsKey("address")),
+        () -> assertEquals(List.of("age", "name"), List.copyOf(view.keySet())),
+        () -> assertEquals(List.of(42, "Bob"), List.copyOf(view.values())),
+        () -> assertEquals(Map.of("name", "Bob", "age", 42), view),
+        () -> assertEquals(Map.of("name", "Bob", "age", 42).hashCode(), view.hashCode()),
+        () -> assertEquals("{age=42, name=Bob}", view.toString()),
+        () -> assertThrows(UnsupportedOperationException.class, () -> view.put("age", 3))
+    );
+  }
+
+  @Test
+  public void projectionIsReusable() {
+    record Point(int x, int y, int z) implements MapTrait {}
+    var projection = MapTrait.projection(Point.class, "z");
+    assertAll(
+        () -> assertEquals(Map.of("z", 3), projection.apply(new Point(1, 2, 3))),
+        () -> assertEquals(Map.of("z", 6), projection.apply(new Point(4, 5, 6))),
+        () -> assertEquals(List.of(Map.of("z", 3)), Stream.of(new Point(1, 2, 3)).map(projection).toList())
+    );
+  }
+
+  @Test
+  public void projectionEmpty() {
+    record Point(int x, int y) implements MapTrait {}
+    var view = MapTrait.projection(Point.class).apply(new Point(1, 2));
+    assertAll(
+        () -> assertTrue(view.isEmpty()),
+        () -> assertEquals(Map.of(), view)
+    );
+  }
+
+  @Test
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void projectionInvalid() {
+    record Point(int x, int y) implements MapTrait {}
+    record Other(int x) {}
+    var projection = (MapTrait.Projection) MapTrait.projection(Point.class, "x");
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.projection(Point.class, "z")),
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.projection(Point.class, "x", "x")),
+        () -> assertThrows(NullPointerException.class, () -> MapTrait.projection(Point.class, "x", null)),
+        () -> assertThrows(NullPointerException.class, () -> MapTrait.projection(null, "x")),
+        () -> assertThrows(NullPointerException.class, () -> projection.apply(null)),
+        () -> assertThrows(ClassCastException.class, () -> projection.apply(new Other(1)))
+    );
+  }
+
+  @Test
+  public void overlay() {
+    record Person(String name, int age) implements MapTrait {}
+    var bob = new Person("Bob", 42);
+    var overlay = bob.overlay();
+    assertAll(
+        () -> assertEquals(Map.of("name", "Bob", "age", 42), overlay),
+        () -> assertSame(bob, overlay.toRecord())
+    );
+    assertEquals(42, overlay.put("age", 43));
+    assertAll(
+        () -> assertEquals(43, overlay.get("age")),
+        () -> assertEquals(Map.of("name", "Bob", "age", 43), overlay),
+        () -> assertEquals(new Person("Bob", 43), overlay.toRecord()),
+        () -> assertEquals(new Person("Bob", 42), bob)
+    );
+  }
+
+  @Test
+  public void overlayMapMethods() {
+    record Person(String name, int age) implements MapTrait {}
+    var overlay = new Person("Bob", 42).overlay();
+    overlay.compute("age", (key, value) -> (int) value + 1);
+    overlay.merge("name", "by", (v1, v2) -> "" + v1 + v2);
+    assertEquals(new Person("Bobby", 43), overlay.toRecord());
+    overlay.replaceAll((key, value) -> key.equals("age")? 0: value);
+    overlay.putAll(Map.of("name", "Ana"));
+    assertEquals(new Person("Ana", 0), overlay.toRecord());
+  }
+
+  @Test
+  public void overlayNullValue() {
+    record Person(String name, int age) implements MapTrait {}
+    var overlay = new Person("Bob", 42).overlay();
+    assertEquals("Bob", overlay.put("name", null));
+    assertAll(
+        () -> assertTrue(overlay.containsKey("name")),
+        () -> assertNull(overlay.get("name")),
+        () -> assertEquals(new Person(null, 42), overlay.toRecord())
+    );
+  }
+
+  @Test
+  public void overlayInvalid() {
+    record Person(String name, int age) implements MapTrait {}
+    var overlay = new Person("Bob", 42).overlay();
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> overlay.put("weight", 72)),
+        () -> assertThrows(NullPointerException.class, () -> overlay.put(null, 72)),
+        () -> assertThrows(NullPointerException.class, () -> overlay.put("age", null)),
+        () -> assertThrows(ClassCastException.class, () -> overlay.put("age", "42")),
+        () -> assertThrows(ClassCastException.class, () -> overlay.put("age", 42L)),
+        () -> assertThrows(ClassCastException.class, () -> overlay.put("name", 42)),
+        () -> assertThrows(UnsupportedOperationException.class, () -> overlay.remove("age")),
+        () -> assertThrows(UnsupportedOperationException.class, overlay::clear),
+        () -> assertEquals(Map.of("name", "Bob", "age", 42), overlay)
+    );
+  }
+
+  @Test
+  public void toRecord() {
+    record Person(String name, int age) {}
+    var ordered = new LinkedHashMap<String, Object>();
+    ordered.put("name", "Bob");
+    ordered.put("age", 42);
+    var reversed = new LinkedHashMap<String, Object>();
+    reversed.put("age", 42);
+    reversed.put("name", "Bob");
+    assertAll(
+        () -> assertEquals(new Person("Bob", 42), MapTrait.toRecord(ordered, Person.class)),
+        () -> assertEquals(new Person("Bob", 42), MapTrait.toRecord(reversed, Person.class)),
+        () -> assertEquals(new Person("Bob", 42), MapTrait.toRecord(Map.of("name", "Bob", "age", 42), Person.class)),
+        () -> assertEquals(new Person(null, 42), MapTrait.toRecord(Map.of("age", 42), Person.class))
+    );
+  }
+
+  @Test
+  public void toRecordFromMapTrait() {
+    record Person(String name, int age) implements MapTrait {}
+    record Employee(String name, int age) implements MapTrait {}
+    record Reversed(int age, String name) implements MapTrait {}
+    var bob = new Person("Bob", 42);
+    var overlay = bob.overlay();
+    overlay.put("age", 43);
+    assertAll(
+        () -> assertSame(bob, MapTrait.toRecord(bob, Person.class)),
+        () -> assertEquals(new Person("Bob", 42), MapTrait.toRecord(new Employee("Bob", 42), Person.class)),
+        () -> assertEquals(new Person("Bob", 42), MapTrait.toRecord(new Reversed(42, "Bob"), Person.class)),
+        () -> assertEquals(new Person("Bob", 43), MapTrait.toRecord(overlay, Person.class)),
+        () -> assertEquals(new Employee("Bob", 43), MapTrait.toRecord(overlay, Employee.class)),
+        () -> assertEquals(new Person("Bob", 42), MapTrait.toRecord(bob.snapshot(), Person.class))
+    );
+  }
+
+  @Test
+  public void toRecordInvalid() {
+    record Person(String name, int age) {}
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.toRecord(Map.of("name", "Bob", "weight", 72), Person.class)),
+        () -> assertThrows(NullPointerException.class, () -> MapTrait.toRecord(Map.of("name", "Bob"), Person.class)),
+        () -> assertThrows(ClassCastException.class, () -> MapTrait.toRecord(Map.of("name", "Bob", "age", "42"), Person.class)),
+        () -> assertThrows(NullPointerException.class, () -> MapTrait.toRecord(null, Person.class)),
+        () -> assertThrows(NullPointerException.class, () -> MapTrait.toRecord(Map.of(), null))
+    );
+  }
+
+  record City(String name, int zip) {}
+  record Address(String street, City city) {}
+  record Customer(String name, Address address) implements MapTrait {}
+
+  @Test
+  public void path() throws Throwable {
+    var zip = MapTrait.path(Customer.class, "address.city.zip");
+    var cityName = MapTrait.path(Customer.class, "address.city.name");
+    var customer = new Customer("Bob", new Address("Main street", new City("Paris", 75000)));
+    assertAll(
+        () -> assertEquals("address.city.zip", zip.path()),
+        () -> assertEquals(Integer.class, zip.type()),
+        () -> assertEquals(75000, zip.get(customer)),
+        () -> assertEquals(75000, zip.getInt(customer)),
+        () -> assertEquals(75000L, zip.getLong(customer)),
+        () -> assertEquals(75000.0, zip.getDouble(customer)),
+        () -> assertEquals(Integer.valueOf(75000), (Integer) zip.getter().invokeExact(customer)),
+        () -> assertEquals("Paris", cityName.get(customer)),
+        () -> assertEquals(List.of("Paris"), Stream.of(customer).map(cityName.asFunction()).toList())
+    );
+  }
+
+  @Test
+  public void pathOneSegment() {
+    var name = MapTrait.path(Customer.class, "name");
+    assertAll(
+        () -> assertEquals(String.class, name.type()),
+        () -> assertEquals("Bob", name.get(new Customer("Bob", null)))
+    );
+  }
+
+  @Test
+  public void pathNullInTheMiddle() {
+    var zip = MapTrait.path(Customer.class, "address.city.zip");
+    var noAddress = new Customer("Bob", null);
+    var noCity = new Customer("Bob", new Address("Main street", null));
+    assertAll(
+        () -> assertNull(zip.get(noAddress)),
+        () -> assertNull(zip.get(noCity)),
+        () -> assertThrows(NullPointerException.class, () -> zip.getInt(noCity)),
+        () -> assertThrows(NullPointerException.class, () -> zip.get(null))
+    );
+  }
+
+  @Test
+  public void pathInvalid() {
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.path(Customer.class, "address.town")),
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.path(Customer.class, "name.length")),
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.path(Customer.class, "address..city")),
+        () -> assertThrows(IllegalArgumentException.class, () -> MapTrait.path(Customer.class, "")),
+        () -> assertThrows(NullPointerException.class, () -> MapTrait.path(Customer.class, null)),
+        () -> assertThrows(NullPointerException.class, () -> MapTrait.path(null, "name"))
+    );
+  }
+
+  @Test
+  public void flatten() {
+    var customer = new Customer("Bob", new Address("Main street", new City("Paris", 75000)));
+    var flat = customer.flatten();
+    var expected = new LinkedHashMap<String, Object>();
+    expected.put("name", "Bob");
+    expected.put("address.street", "Main street");
+    expected.put("address.city.name", "Paris");
+    expected.put("address.city.zip", 75000);
+    assertAll(
+        () -> assertEquals(4, flat.size()),
+        () -> assertEquals("Paris", flat.get("address.city.name")),
+        () -> assertEquals(75000, flat.get("address.city.zip")),
+        () -> assertNull(flat.get("address.city")),
+        () -> assertNull(flat.get("address")),
+        () -> assertFalse(flat.containsKey("address")),
+        () -> assertTrue(flat.containsKey("address.street")),
+        () -> assertEquals(List.copyOf(expected.keySet()), List.copyOf(flat.keySet())),
+        () -> assertEquals(expected, flat),
+        () -> assertEquals(expected.toString(), flat.toString()),
+        () -> assertThrows(UnsupportedOperationException.class, () -> flat.put("name", "Ana"))
+    );
+  }
+
+  @Test
+  public void flattenNullNestedRecord() {
+    var flat = new Customer("Bob", new Address("Main street", null)).flatten();
+    assertAll(
+        () -> assertTrue(flat.containsKey("address.city.zip")),
+        () -> assertNull(flat.get("address.city.zip")),
+        () -> assertNull(flat.get("address.city.name")),
+        () -> assertEquals("Main street", flat.get("address.street"))
+    );
+  }
+
+  record Node(int value, Node next) implements MapTrait {}
+
+  @Test
+  public void flattenRecursiveRecord() {
+    var flat = new Node(1, new Node(2, null)).flatten();
+    assertAll(
+        () -> assertEquals(List.of("value", "next"), List.copyOf(flat.keySet())),
+        () -> assertEquals(new Node(2, null), flat.get("next"))
+    );
+  }
+}
@@ -0,0 +1,86 @@
+package com.github.forax.recordutil;
+
+import com.github.forax.recordutil.TraitImpl.RecordShape;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// compare the accessor using method handles (hiddenClass=false) with the accessor generated at runtime
+// (hiddenClass=true), both obtained through TraitImpl.recordShape() like MapTrait and JSONTrait do.
+// The shapes are computed in each fork after the system property is set.
+// mvn test-compile
+// java -cp target/test-classes:target/classes:<jmh jars> org.openjdk.jmh.Main RecordAccessorBenchMark
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class RecordAccessorBenchMark {
+  record Person(String name, int age, double weight) implements MapTrait {}
+  record Point(int x, int y) implements MapTrait {}
+  record Item(String label, long quantity, boolean available, String category) implements MapTrait {}
+
+  @Param({ "false", "true" })
+  public boolean hiddenClass;
+
+  private final Person person = new Person("Bob", 42, 78.5);
+  // several record classes, so the call to the accessor is megamorphic
+  private final MapTrait[] records = { person, new Point(1, 2), new Item("pen", 10L, true, "office") };
+
+  private RecordShape shape;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    System.setProperty(TraitImpl.HIDDEN_CLASS_PROPERTY, "" + hiddenClass);
+    shape = TraitImpl.recordShape(Person.class);
+    if (shape.accessor().getClass().isHidden() != hiddenClass) {
+      throw new AssertionError("wrong accessor " + shape.accessor());
+    }
+  }
+
+  @Benchmark
+  public int shape_get() {
+    var hash = 0;
+    for(var i = 0; i < 3; i++) {
+      hash += shape.get(person, i).hashCode();
+    }
+    return hash;
+  }
+
+  @Benchmark
+  public int map_get() {
+    return person.get("name").hashCode() + person.get("age").hashCode() + person.get("weight").hashCode();
+  }
+
+  @Benchmark
+  public int map_forEach_several_classes() {
+    var hash = new int[1];
+    for(var record: records) {
+      record.forEach((key, value) -> hash[0] += value.hashCode());
+    }
+    return hash[0];
+  }
+
+  @Benchmark
+  public int map_values_several_classes() {
+    var hash = 0;
+    for(var record: records) {
+      for(var value: record.values()) {
+        hash += value.hashCode();
+      }
+    }
+    return hash;
+  }
+}
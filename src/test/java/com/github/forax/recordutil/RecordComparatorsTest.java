@@ -0,0 +1,108 @@
+package com.github.forax.recordutil;
+
+import com.github.forax.recordutil.RecordComparators.Key;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordComparatorsTest {
+  record Person(String lastName, String firstName, int age) {}
+
+  private static <T> List<T> sort(List<T> list, Comparator<? super T> comparator) {
+    var copy = new ArrayList<>(list);
+    copy.sort(comparator);
+    return copy;
+  }
+
+  @Test
+  public void ofNames() {
+    var persons = List.of(
+        new Person("Doe", "John", 42),
+        new Person("Baker", "Ana", 24),
+        new Person("Doe", "Jane", 37));
+    var comparator = RecordComparators.of(Person.class, "lastName", "firstName");
+    assertEquals(sort(persons, Comparator.comparing(Person::lastName).thenComparing(Person::firstName)), sort(persons, comparator));
+  }
+
+  @Test
+  public void ofPrimitive() {
+    record Data(byte b, short s, char c, int i, long l, float f, double d, boolean z) {}
+    var data1 = new Data((byte) 1, (short) 1, 'a', 1, 1L, 1f, 1.0, false);
+    var data2 = new Data((byte) 2, (short) 2, 'b', 2, 2L, 2f, 2.0, true);
+    for(var component: Data.class.getRecordComponents()) {
+      var comparator = RecordComparators.of(Data.class, component.getName());
+      assertAll(
+          () -> assertTrue(comparator.compare(data1, data2) < 0),
+          () -> assertTrue(comparator.compare(data2, data1) > 0),
+          () -> assertEquals(0, comparator.compare(data1, data1))
+      );
+    }
+  }
+
+  @Test
+  public void ofFloatingPoint() {
+    record Value(double d) {}
+    var comparator = RecordComparators.of(Value.class, "d");
+    assertAll(
+        () -> assertTrue(comparator.compare(new Value(-0.0), new Value(0.0)) < 0),
+        () -> assertEquals(0, comparator.compare(new Value(Double.NaN), new Value(Double.NaN))),
+        () -> assertTrue(comparator.compare(new Value(Double.POSITIVE_INFINITY), new Value(Double.NaN)) < 0)
+    );
+  }
+
+  @Test
+  public void ofKeys() {
+    var persons = List.of(
+        new Person("Doe", "John", 42),
+        new Person("Baker", "Ana", 24),
+        new Person("Doe", "Jane", 37),
+        new Person("Adams", "Bob", 42));
+    var comparator = RecordComparators.of(Person.class, Key.descending("age"), Key.ascending("lastName"));
+    assertEquals(List.of(
+        new Person("Adams", "Bob", 42),
+        new Person("Doe", "John", 42),
+        new Person("Doe", "Jane", 37),
+        new Person("Baker", "Ana", 24)), sort(persons, comparator));
+  }
+
+  @Test
+  public void ofNulls() {
+    var persons = List.of(
+        new Person("Doe", "John", 42),
+        new Person(null, "Ana", 24),
+        new Person("Baker", "Jane", 37));
+    assertAll(
+        () -> assertEquals(List.of("Baker", "Doe", "null"),
+            sort(persons, RecordComparators.of(Person.class, "lastName")).stream().map(p -> "" + p.lastName()).toList()),
+        () -> assertEquals(List.of("null", "Baker", "Doe"),
+            sort(persons, RecordComparators.of(Person.class, Key.ascending("lastName").nullsFirst())).stream().map(p -> "" + p.lastName()).toList()),
+        () -> assertEquals(List.of("Doe", "Baker", "null"),
+            sort(persons, RecordComparators.of(Person.class, Key.descending("lastName"))).stream().map(p -> "" + p.lastName()).toList()),
+        () -> assertEquals(List.of("null", "Doe", "Baker"),
+            sort(persons, RecordComparators.of(Person.class, Key.descending("lastName").nullsFirst())).stream().map(p -> "" + p.lastName()).toList())
+    );
+  }
+
+  @Test
+  public void ofNoKey() {
+    var comparator = RecordComparators.of(Person.class);
+    assertEquals(0, comparator.compare(new Person("Doe", "John", 42), new Person("Baker", "Ana", 24)));
+  }
+
+  @Test
+  public void ofInvalid() {
+    record Holder(Object value) {}
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> RecordComparators.of(Person.class, "weight")),
+        () -> assertThrows(IllegalArgumentException.class, () -> RecordComparators.of(Holder.class, "value")),
+        () -> assertThrows(NullPointerException.class, () -> RecordComparators.of(Person.class, (String) null)),
+        () -> assertThrows(NullPointerException.class, () -> RecordComparators.of(Person.class, Key.ascending("age"), (Key) null)),
+        () -> assertThrows(NullPointerException.class, () -> RecordComparators.of(null, "age")),
+        () -> assertThrows(NullPointerException.class, () -> Key.ascending(null))
+    );
+  }
+}
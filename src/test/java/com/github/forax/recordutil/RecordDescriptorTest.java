@@ -0,0 +1,212 @@
+package com.github.forax.recordutil;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandles;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordDescriptorTest {
+  record Point(int x, int y) implements MapTrait, WithTrait<Point> {}
+
+  // written by hand, this is what the annotation processor generates
+  @SuppressWarnings("unused")
+  static final class Point$$RecordDescriptor implements RecordDescriptor {
+    static {
+      RecordDescriptor.register(MethodHandles.lookup(), new Point$$RecordDescriptor());
+    }
+
+    @Override
+    public Class<?> recordType() {
+      return Point.class;
+    }
+
+    @Override
+    public String[] names() {
+      return new String[] { "x", "y" };
+    }
+
+    @Override
+    public Class<?>[] types() {
+      return new Class<?>[] { int.class, int.class };
+    }
+
+    @Override
+    public Object get(Object record, int index) {
+      var r = (Point) record;
+      switch (index) {
+        case 0: return r.x();
+        case 1: return r.y();
+        default: throw new IllegalArgumentException("invalid index " + index);
+      }
+    }
+
+    @Override
+    public Object get(Object record, String name, Object defaultValue) {
+      var r = (Point) record;
+      switch (name) {
+        case "x": return r.x();
+        case "y": return r.y();
+        default: return defaultValue;
+      }
+    }
+
+    @Override
+    public void copyTo(Object record, Object[] dst, int offset) {
+      var r = (Point) record;
+      dst[offset] = r.x();
+      dst[offset + 1] = r.y();
+    }
+
+    @Override
+    public Object newInstance(Object[] values) {
+      return new Point((int) values[0], (int) values[1]);
+    }
+  }
+
+  @Test
+  public void descriptorIsUsed() {
+    var shape = RecordShapeTest.withHiddenClassProperty(false, () -> TraitImpl.recordShape(Point.class));
+    assertTrue(shape.accessor() instanceof Point$$RecordDescriptor);
+  }
+
+  record Pixel(int x, int y) implements MapTrait {}
+
+  // written by hand, this is what the annotation processor generates
+  @SuppressWarnings("unused")
+  static final class Pixel$$RecordDescriptor implements RecordDescriptor {
+    static {
+      RecordDescriptor.register(MethodHandles.lookup(), new Pixel$$RecordDescriptor());
+    }
+
+    @Override
+    public Class<?> recordType() {
+      return Pixel.class;
+    }
+
+    @Override
+    public String[] names() {
+      return new String[] { "x", "y" };
+    }
+
+    @Override
+    public Class<?>[] types() {
+      return new Class<?>[] { int.class, int.class };
+    }
+
+    @Override
+    public Object get(Object record, int index) {
+      var r = (Pixel) record;
+      switch (index) {
+        case 0: return r.x();
+        case 1: return r.y();
+        default: throw new IllegalArgumentException("invalid index " + index);
+      }
+    }
+
+    @Override
+    public Object get(Object record, String name, Object defaultValue) {
+      var r = (Pixel) record;
+      switch (name) {
+        case "x": return r.x();
+        case "y": return r.y();
+        default: return defaultValue;
+      }
+    }
+
+    @Override
+    public void copyTo(Object record, Object[] dst, int offset) {
+      var r = (Pixel) record;
+      dst[offset] = r.x();
+      dst[offset + 1] = r.y();
+    }
+
+    @Override
+    public Object newInstance(Object[] values) {
+      return new Pixel((int) values[0], (int) values[1]);
+    }
+  }
+
+  @Test
+  public void hiddenClassBackendWithADescriptor() {
+    var shape = RecordShapeTest.withHiddenClassProperty(true, () -> TraitImpl.recordShape(Pixel.class));
+    assertAll(
+        () -> assertTrue(shape.accessor().getClass().isHidden()),
+        () -> assertEquals(2, new Pixel(1, 2).get("y")),
+        () -> assertEquals("{x=1, y=2}", new Pixel(1, 2).toStringOfMap())
+    );
+  }
+
+  @Test
+  public void mapTraitWithADescriptor() {
+    var point = new Point(1, 2);
+    assertAll(
+        () -> assertEquals(1, point.get("x")),
+        () -> assertEquals(2, point.get("y")),
+        () -> assertNull(point.get("z")),
+        () -> assertEquals("{x=1, y=2}", point.toStringOfMap())
+    );
+  }
+
+  @Test
+  public void withTraitWithADescriptor() {
+    var point = new Point(1, 2);
+    assertEquals(new Point(3, 2), point.with("x", 3));
+  }
+
+  @Test
+  public void hasDescriptor() {
+    record Person(String name) {}
+    assertAll(
+        () -> assertTrue(TraitImpl.hasDescriptor(Point.class)),
+        () -> assertFalse(TraitImpl.hasDescriptor(Person.class))
+    );
+  }
+
+  @Test
+  public void updaterWithADescriptor() {
+    var updater = WithTrait.intUpdater(Point.class, "y");
+    assertEquals(new Point(1, 4), updater.with(new Point(1, 2), 4));
+  }
+
+  @Test
+  public void registerWithAWrongLookup() {
+    record Person(String name) {}
+    var descriptor = new RecordDescriptor() {
+      @Override
+      public Class<?> recordType() {
+        return Person.class;
+      }
+      @Override
+      public String[] names() {
+        return new String[] { "name" };
+      }
+      @Override
+      public Class<?>[] types() {
+        return new Class<?>[] { String.class };
+      }
+      @Override
+      public Object get(Object record, int index) {
+        return ((Person) record).name();
+      }
+      @Override
+      public Object get(Object record, String name, Object defaultValue) {
+        return name.equals("name")? ((Person) record).name(): defaultValue;
+      }
+      @Override
+      public void copyTo(Object record, Object[] dst, int offset) {
+        dst[offset] = ((Person) record).name();
+      }
+      @Override
+      public Object newInstance(Object[] values) {
+        return new Person((String) values[0]);
+      }
+    };
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> RecordDescriptor.register(MethodHandles.publicLookup(), descriptor)),
+        () -> assertThrows(IllegalArgumentException.class, () -> RecordDescriptor.register(MethodHandles.lookup().in(String.class), descriptor)),
+        () -> assertThrows(NullPointerException.class, () -> RecordDescriptor.register(null, descriptor)),
+        () -> assertThrows(NullPointerException.class, () -> RecordDescriptor.register(MethodHandles.lookup(), null))
+    );
+  }
+}
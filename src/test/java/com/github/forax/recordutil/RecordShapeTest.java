@@ -0,0 +1,243 @@
+package com.github.forax.recordutil;
+
+import com.github.forax.recordutil.TraitImpl.Getters;
+import com.github.forax.recordutil.TraitImpl.MethodHandleAccessor;
+import com.github.forax.recordutil.TraitImpl.RecordShape;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordShapeTest {
+  record Person(String name, int age) { }
+
+  private static final MethodHandle NAME, AGE, CONSTRUCTOR;
+  static {
+    var lookup = MethodHandles.lookup();
+    try {
+      NAME = lookup.findVirtual(Person.class, "name", MethodType.methodType(String.class));
+      AGE = lookup.findVirtual(Person.class, "age", MethodType.methodType(int.class));
+      CONSTRUCTOR = lookup.findConstructor(Person.class, MethodType.methodType(void.class, String.class, int.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static RecordShape shape(int capacity) {
+    var keys = IntStream.range(0, capacity).mapToObj(i -> "" + i).toArray(String[]::new);
+    var types = IntStream.range(0, capacity).mapToObj(i -> int.class).toArray(Class<?>[]::new);
+    var getters = IntStream.range(0, capacity).mapToObj(i -> i %2 == 0? NAME: AGE).toArray(MethodHandle[]::new);
+    return new RecordShape(keys, types, getters, CONSTRUCTOR);
+  }
+
+  @Test
+  public void getEmptySize() {
+    var shape = shape(0);
+    assertNull(shape.getValue("foo"));
+    assertNull(shape.getValue("bar"));
+    assertEquals(-1, shape.getSlot("baz"));
+  }
+
+  @Test
+  public void getEmpty1() {
+    var shape = shape(1);
+    assertNull(shape.getValue("foo"));
+    assertNull(shape.getValue("bar"));
+    assertEquals(-1, shape.getSlot("baz"));
+  }
+
+  @Test
+  public void getEmpty6() {
+    var shape = shape(6);
+    assertNull(shape.getValue("foo"));
+    assertNull(shape.getValue("bar"));
+    assertEquals(-1, shape.getSlot("baz"));
+  }
+
+  @Test
+  public void get1() {
+    var shape = new RecordShape(new String[] { "age" }, new Class<?>[] { int.class }, new MethodHandle[] { AGE }, CONSTRUCTOR);
+    assertEquals(1, shape.size());
+    assertEquals(0, shape.getSlot("age"));
+    assertEquals(AGE, shape.getValue("age"));
+    assertEquals("age", shape.getKey(0));
+    assertEquals(int.class, shape.getType(0));
+    assertEquals(AGE, shape.getValue(0));
+  }
+
+  @Test
+  public void get2() {
+    var shape = new RecordShape(new String[] { "name", "age" }, new Class<?>[] { String.class, int.class }, new MethodHandle[] { NAME, AGE }, CONSTRUCTOR);
+    assertEquals(2, shape.size());
+    assertEquals(0, shape.getSlot("name"));
+    assertEquals(1, shape.getSlot("age"));
+    assertEquals(NAME, shape.getValue("name"));
+    assertEquals(AGE, shape.getValue("age"));
+    assertEquals(-1, shape.getSlot("baz"));
+    assertNull(shape.getValue("joy"));
+    assertFalse(shape.containsKey("love"));
+    assertEquals("name", shape.getKey(0));
+    assertEquals(String.class, shape.getType(0));
+    assertEquals(NAME, shape.getValue(0));
+    assertEquals("age", shape.getKey(1));
+    assertEquals(int.class, shape.getType(1));
+    assertEquals(AGE, shape.getValue(1));
+  }
+
+  @Test
+  public void getSameHashCode() {
+    // "Aa" and "BB" have the same hash code
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+    var shape = new RecordShape(new String[] { "Aa", "BB" }, new Class<?>[] { String.class, int.class }, new MethodHandle[] { NAME, AGE }, CONSTRUCTOR);
+    assertEquals(0, shape.getSlot("Aa"));
+    assertEquals(1, shape.getSlot("BB"));
+    assertEquals(-1, shape.getSlot("AaBB"));
+    assertEquals(-1, shape.getSlot(""));
+  }
+
+  @Test
+  public void getKeyALot() {
+    var capacity = 100_000;
+    var shape = shape(capacity);
+
+    // hit
+    IntStream.range(0, capacity).forEach(i -> assertEquals(i, shape.getSlot("" + i)));
+    IntStream.range(0, capacity).forEach(i -> assertEquals(i %2 == 0? NAME: AGE, shape.getValue("" + i)));
+
+    // miss
+    IntStream.range(0, capacity).forEach(i -> assertEquals(-1, shape.getSlot("foo" + i)));
+    IntStream.range(0, capacity).forEach(i -> assertNull(shape.getValue("foo" + i)));
+  }
+
+  @Test
+  public void getIndexALot() {
+    var capacity = 100_000;
+    var shape = shape(capacity);
+
+    // linear scan
+    IntStream.range(0, capacity).forEach(i -> assertEquals("" + i, shape.getKey(i)));
+    IntStream.range(0, capacity).forEach(i -> assertEquals(i %2 == 0? NAME: AGE, shape.getValue(i)));
+  }
+
+  @Test
+  public void size() {
+    var shape = shape(77);
+    assertEquals(77, shape.size());
+  }
+
+  @Test
+  public void sameShapeForAllTraits() {
+    record Point(int x, int y) implements MapTrait, WithTrait<Point>, JSONTrait { }
+    var shape = TraitImpl.recordShape(Point.class);
+    assertSame(shape, TraitImpl.recordShape(Point.class));
+    assertEquals(2, shape.size());
+    assertEquals(int.class, shape.getType(1));
+  }
+
+  @Test
+  public void gettersAreResolvedLazily() {
+    var resolved = new ArrayList<Integer>();
+    var getters = new Getters(2, index -> {
+      resolved.add(index);
+      return index == 0? NAME: AGE;
+    });
+    var shape = new RecordShape(new String[] { "name", "age" }, new Class<?>[] { String.class, int.class }, getters, CONSTRUCTOR);
+    assertEquals(List.of(), resolved);
+    assertEquals(42, shape.get(new Person("Bob", 42), 1));
+    assertEquals(42, shape.get(new Person("Ana", 42), 1));
+    assertEquals(AGE, shape.getValue("age"));
+    assertEquals(List.of(1), resolved);
+  }
+
+  @Test
+  public void resolveAllGetters() {
+    var resolved = new ArrayList<Integer>();
+    var getters = new Getters(2, index -> {
+      resolved.add(index);
+      return index == 0? NAME: AGE;
+    });
+    assertFalse(getters.isResolved(0));
+    getters.resolveAll();
+    assertAll(
+        () -> assertEquals(List.of(0, 1), resolved),
+        () -> assertTrue(getters.isResolved(0)),
+        () -> assertTrue(getters.isResolved(1))
+    );
+  }
+
+  @Test
+  public void gettersAreResolvedOnce() throws InterruptedException {
+    var getters = new Getters(1, index -> AGE.asType(AGE.type()));
+    var threads = IntStream.range(0, 4)
+        .mapToObj(i -> new Thread(() -> getters.getObject(0)))
+        .toList();
+    threads.forEach(Thread::start);
+    for(var thread: threads) {
+      thread.join();
+    }
+    assertSame(getters.get(0), getters.get(0));
+    assertSame(getters.getObject(0), getters.getObject(0));
+  }
+
+  static <T> T withHiddenClassProperty(boolean value, Supplier<? extends T> supplier) {
+    var oldValue = System.getProperty(TraitImpl.HIDDEN_CLASS_PROPERTY);
+    System.setProperty(TraitImpl.HIDDEN_CLASS_PROPERTY, "" + value);
+    try {
+      return supplier.get();
+    } finally {
+      if (oldValue == null) {
+        System.clearProperty(TraitImpl.HIDDEN_CLASS_PROPERTY);
+      } else {
+        System.setProperty(TraitImpl.HIDDEN_CLASS_PROPERTY, oldValue);
+      }
+    }
+  }
+
+  @Test
+  public void hiddenClassBackend() {
+    record Point(int x, int y) implements MapTrait {}
+    var shape = withHiddenClassProperty(true, () -> TraitImpl.recordShape(Point.class));
+    assertAll(
+        () -> assertTrue(shape.accessor().getClass().isHidden()),
+        () -> assertFalse(shape.accessor() instanceof MethodHandleAccessor),
+        () -> assertEquals(2, shape.get(new Point(1, 2), 1)),
+        () -> assertEquals(2, new Point(1, 2).get("y"))
+    );
+  }
+
+  @Test
+  public void hiddenClassBackendPrivateRecord() {
+    var shape = withHiddenClassProperty(true, () -> TraitImpl.recordShape(PrivatePoint.class));
+    assertAll(
+        () -> assertTrue(shape.accessor().getClass().isHidden()),
+        () -> assertEquals(1, shape.get(new PrivatePoint(1, 2), 0))
+    );
+  }
+  private record PrivatePoint(int x, int y) {}
+
+  @Test
+  public void methodHandleBackend() {
+    record Point(int x, int y) {}
+    var shape = withHiddenClassProperty(false, () -> TraitImpl.recordShape(Point.class));
+    assertAll(
+        () -> assertTrue(shape.accessor() instanceof MethodHandleAccessor),
+        () -> assertEquals(2, shape.get(new Point(1, 2), 1))
+    );
+  }
+
+  @Test
+  public void generateAccessorWithoutFullPrivilegeAccess() {
+    record Point(int x, int y) {}
+    var lookup = MethodHandles.lookup().dropLookupMode(Lookup.MODULE);
+    var fallback = new MethodHandleAccessor(TraitImpl.KeyTable.of(new String[0]), Getters.of(new MethodHandle[0]));
+    assertSame(fallback, TraitImpl.generateAccessor(lookup, Point.class, fallback));
+  }
+}
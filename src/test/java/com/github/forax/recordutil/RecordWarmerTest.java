@@ -0,0 +1,171 @@
+package com.github.forax.recordutil;
+
+import com.github.forax.recordutil.warmup.Item;
+import com.github.forax.recordutil.warmup.Order;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReader;
+import java.lang.module.ModuleReference;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordWarmerTest {
+  record Person(String name, int age) implements MapTrait {}
+  record Point(int x, int y) implements WithTrait<Point> {}
+
+  @Test
+  public void warmUp() {
+    var report = RecordWarmer.warmUp(Person.class, Point.class);
+    assertEquals(2, report.recordCount());
+    assertFalse(report.duration().isNegative());
+  }
+
+  @Test
+  public void warmUpResolvesTheGetters() {
+    record Account(String owner, long balance, boolean closed) {}
+    RecordWarmer.warmUp(Account.class);
+    var getters = TraitImpl.recordShape(Account.class).getters();
+    assertAll(
+        () -> assertTrue(getters.isResolved(0)),
+        () -> assertTrue(getters.isResolved(1)),
+        () -> assertTrue(getters.isResolved(2))
+    );
+  }
+
+  @Test
+  public void warmUpComputesTheCaches() {
+    record Account(String owner, long balance) implements MapTrait, WithTrait<Account> {}
+    RecordWarmer.warmUp(Account.class);
+    var shape = TraitImpl.recordShape(Account.class);
+    var plans = WithTraitImpl.updatePlans(Account.class);
+    assertAll(
+        () -> assertNotNull(shape.components()[0]),
+        () -> assertNotNull(shape.components()[1]),
+        () -> assertTrue(plans.hasPlan("owner")),
+        () -> assertTrue(plans.hasPlan("balance"))
+    );
+  }
+
+  @Test
+  public void warmUpWithAPool() {
+    var pool = new ForkJoinPool(2);
+    try {
+      var report = RecordWarmer.warmUp(List.of(Person.class, Point.class), pool);
+      assertEquals(2, report.recordCount());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void warmUpNotARecord() {
+    assertThrows(IllegalArgumentException.class, () -> RecordWarmer.warmUp(String.class));
+  }
+
+  @Test
+  public void warmUpNull() {
+    assertAll(
+        () -> assertThrows(NullPointerException.class, () -> RecordWarmer.warmUp((Class<?>) null)),
+        () -> assertThrows(NullPointerException.class, () -> RecordWarmer.warmUp(List.of(Person.class), null)),
+        () -> assertThrows(NullPointerException.class, () -> RecordWarmer.warmUpModule(null)),
+        () -> assertThrows(NullPointerException.class, () -> RecordWarmer.warmUpPackage(null, "foo")),
+        () -> assertThrows(NullPointerException.class, () -> RecordWarmer.warmUpPackage(getClass().getClassLoader(), null))
+    );
+  }
+
+  @Test
+  public void warmUpPackage() {
+    // a package containing only two records, so the records of the other tests are not warmed up
+    var report = RecordWarmer.warmUpPackage(getClass().getClassLoader(), Item.class.getPackageName());
+    assertAll(
+        () -> assertEquals(2, report.recordCount()),
+        () -> assertTrue(TraitImpl.recordShape(Order.class).getters().isResolved(1))
+    );
+  }
+
+  @Test
+  public void warmUpPackageEmpty() {
+    var report = RecordWarmer.warmUpPackage(getClass().getClassLoader(), "com.github.forax.nothing");
+    assertEquals(0, report.recordCount());
+  }
+
+  // a module containing the records of the package warmup and a class that can not be loaded
+  private static Module warmupModule() throws IOException {
+    var packageName = Item.class.getPackageName();
+    var path = packageName.replace('.', '/');
+    var classFiles = Map.of(
+        path + "/Item.class", classFile(Item.class),
+        path + "/Order.class", classFile(Order.class),
+        path + "/Broken.class", new byte[] { (byte) 0xCA, (byte) 0xFE });
+    var descriptor = ModuleDescriptor.newOpenModule("warmup").packages(Set.of(packageName)).build();
+    var reference = new ModuleReference(descriptor, null) {
+      @Override
+      public ModuleReader open() {
+        return new ModuleReader() {
+          @Override
+          public Optional<URI> find(String name) {
+            return Optional.empty();
+          }
+          @Override
+          public Optional<InputStream> open(String name) {
+            return Optional.ofNullable(classFiles.get(name)).map(ByteArrayInputStream::new);
+          }
+          @Override
+          public Stream<String> list() {
+            return classFiles.keySet().stream();
+          }
+          @Override
+          public void close() {}
+        };
+      }
+    };
+    var finder = new ModuleFinder() {
+      @Override
+      public Optional<ModuleReference> find(String name) {
+        return name.equals("warmup")? Optional.of(reference): Optional.empty();
+      }
+      @Override
+      public Set<ModuleReference> findAll() {
+        return Set.of(reference);
+      }
+    };
+    var bootLayer = ModuleLayer.boot();
+    var configuration = bootLayer.configuration().resolve(finder, ModuleFinder.of(), Set.of("warmup"));
+    var layer = bootLayer.defineModulesWithOneLoader(configuration, ClassLoader.getSystemClassLoader());
+    return layer.findModule("warmup").orElseThrow();
+  }
+
+  private static byte[] classFile(Class<?> type) throws IOException {
+    try(var input = type.getResourceAsStream(type.getSimpleName() + ".class")) {
+      return input.readAllBytes();
+    }
+  }
+
+  @Test
+  public void warmUpModule() throws IOException {
+    var module = warmupModule();
+    var report = RecordWarmer.warmUpModule(module);
+    assertAll(
+        () -> assertEquals(2, report.recordCount()),
+        () -> assertNotSame(Order.class, Class.forName(module, Order.class.getName())),
+        () -> assertTrue(TraitImpl.recordShape(Class.forName(module, Order.class.getName())).getters().isResolved(0))
+    );
+  }
+
+  @Test
+  public void warmUpModuleUnnamed() {
+    assertThrows(IllegalArgumentException.class, () -> RecordWarmer.warmUpModule(getClass().getClassLoader().getUnnamedModule()));
+  }
+}
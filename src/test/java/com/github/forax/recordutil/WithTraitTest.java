@@ -2,6 +2,10 @@ package com.github.forax.recordutil;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.LinkedList;
+import java.util.List;
+import java.util.stream.IntStream;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class WithTraitTest {
@@ -54,4 +58,288 @@ public class WithTraitTest {
         "street", "5th avenue");
     assertEquals(new Address(354, "5th avenue", "Madrid", "n/a", "Spain"), address2);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void withSameNamesSeveralTimes() {
+    record Point(int x, int y) implements WithTrait<Point> {}
+    var point = new Point(1, 2);
+    for(var i = 0; i < 10; i++) {
+      assertEquals(new Point(i, 2), point.with("x", i));
+      assertEquals(new Point(i, -i), point.with("x", i, "y", -i));
+      assertEquals(new Point(-i, i), point.with("y", i, "x", -i));
+      assertEquals(new Point(i, i), point.with(new Object[] { "y", i, "x", i }));
+    }
+  }
+
+  @Test
+  public void updatePlansAreCached() {
+    record Point(int x, int y) implements WithTrait<Point> {}
+    var plans = WithTraitImpl.updatePlans(Point.class);
+    assertAll(
+        () -> assertSame(plans, WithTraitImpl.updatePlans(Point.class)),
+        () -> assertSame(plans.plan("x"), plans.plan("x")),
+        () -> assertNotSame(plans.plan("x"), plans.plan("y")),
+        () -> assertThrows(IllegalStateException.class, () -> plans.plan("z"))
+    );
+  }
+
+  @Test
+  public void withManyPrimitiveComponents() {
+    record Sample(byte b, short s, char c, int i, long l, float f, double d, boolean z) implements WithTrait<Sample> {}
+    var sample = new Sample((byte) 1, (short) 2, 'c', 4, 5L, 6f, 7.0, true);
+    assertAll(
+        () -> assertEquals(new Sample((byte) 1, (short) 2, 'c', 40, 5L, 6f, 7.0, true), sample.with("i", 40)),
+        () -> assertEquals(new Sample((byte) 1, (short) 2, 'c', 4, 50L, 6f, 70.0, false), sample.with("d", 70.0, "z", false, "l", 50L)),
+        () -> assertEquals(new Sample((byte) 10, (short) 2, 'c', 4, 5L, 60f, 7.0, true), sample.with(new Object[] { "f", 60f, "b", (byte) 10 }))
+    );
+  }
+
+  @Test
+  public void withDuplicateName() {
+    record Point(int x, int y) implements WithTrait<Point> {}
+    var point = new Point(1, 2);
+    assertAll(
+        () -> assertEquals(new Point(4, 2), point.with("x", 3, "x", 4)),
+        () -> assertEquals(new Point(5, 2), point.with("x", 3, "x", 4, "x", 5, "x", 6, "x", 5))
+    );
+  }
+
+  @Test
+  public void withInvalid() {
+    record Person(String name, int age) implements WithTrait<Person> {}
+    var person = new Person("Bob", 42);
+    assertAll(
+        () -> assertThrows(IllegalStateException.class, () -> person.with("weight", 80)),
+        () -> assertThrows(IllegalStateException.class, () -> person.with("name", "Ana", "weight", 80)),
+        () -> assertThrows(ClassCastException.class, () -> person.with("age", "Ana")),
+        () -> assertThrows(ClassCastException.class, () -> person.with("age", 23, "name", 12)),
+        () -> assertThrows(NullPointerException.class, () -> person.with("age", null)),
+        () -> assertThrows(NullPointerException.class, () -> person.with(null, 23)),
+        () -> assertThrows(IllegalArgumentException.class, () -> person.with("age", 23, "name")),
+        () -> assertThrows(IllegalArgumentException.class, () -> person.with("age", 23, 42, "name", "name", "Ana"))
+    );
+  }
+
+  @Test
+  public void updater() {
+    record Person(String name, int age) {}
+    var updater = WithTrait.updater(Person.class, "name", String.class);
+    assertAll(
+        () -> assertEquals(new Person("Ana", 42), updater.with(new Person("Bob", 42), "Ana")),
+        () -> assertEquals(new Person(null, 42), updater.with(new Person("Bob", 42), null))
+    );
+  }
+
+  @Test
+  public void updater2() {
+    record Person(String name, int age) {}
+    var updater = WithTrait.updater(Person.class, "age", int.class, "name", String.class);
+    assertEquals(new Person("Ana", 23), updater.with(new Person("Bob", 42), 23, "Ana"));
+  }
+
+  @Test
+  public void primitiveUpdaters() {
+    record State(int step, long time, double position, double speed) {}
+    var step = WithTrait.intUpdater(State.class, "step");
+    var time = WithTrait.longUpdater(State.class, "time");
+    var position = WithTrait.doubleUpdater(State.class, "position");
+    var state = new State(0, 0L, 0.0, 2.0);
+    for(var i = 0; i < 10; i++) {
+      state = position.with(time.with(step.with(state, state.step() + 1), state.time() + 10L), state.position() + state.speed());
+    }
+    assertEquals(new State(10, 100L, 20.0, 2.0), state);
+  }
+
+  @Test
+  public void updaterInvalid() {
+    record Person(String name, int age) {}
+    assertAll(
+        () -> assertThrows(IllegalStateException.class, () -> WithTrait.updater(Person.class, "weight", int.class)),
+        () -> assertThrows(IllegalStateException.class, () -> WithTrait.updater(Person.class, "name", String.class, "weight", int.class)),
+        () -> assertThrows(IllegalStateException.class, () -> WithTrait.intUpdater(Person.class, "weight")),
+        () -> assertThrows(IllegalArgumentException.class, () -> WithTrait.updater(Person.class, "age", Integer.class)),
+        () -> assertThrows(IllegalArgumentException.class, () -> WithTrait.updater(Person.class, "age", int.class, "age", int.class)),
+        () -> assertThrows(IllegalArgumentException.class, () -> WithTrait.intUpdater(Person.class, "name")),
+        () -> assertThrows(IllegalArgumentException.class, () -> WithTrait.longUpdater(Person.class, "age")),
+        () -> assertThrows(IllegalArgumentException.class, () -> WithTrait.doubleUpdater(Person.class, "age")),
+        () -> assertThrows(NullPointerException.class, () -> WithTrait.intUpdater(Person.class, null)),
+        () -> assertThrows(NullPointerException.class, () -> WithTrait.intUpdater(null, "age")),
+        () -> assertThrows(NullPointerException.class, () -> WithTrait.updater(Person.class, "name", null)),
+        () -> assertThrows(NullPointerException.class, () -> WithTrait.intUpdater(Person.class, "age").with(null, 3)),
+        () -> assertThrows(NullPointerException.class, () -> WithTrait.updater(Person.class, "age", int.class).with(new Person("Bob", 42), null))
+    );
+  }
+
+  @Test
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void updaterWrongRecord() {
+    record Person(String name, int age) {}
+    record Dog(String name, int age) {}
+    var updater = (WithTrait.IntUpdater) WithTrait.intUpdater(Person.class, "age");
+    assertThrows(ClassCastException.class, () -> updater.with(new Dog("Rex", 3), 4));
+  }
+
+  @Test
+  public void withAllValue() {
+    record Product(String name, double price, int stock) {}
+    var products = List.of(new Product("pen", 1.0, 3), new Product("ink", 5.0, 0));
+    assertAll(
+        () -> assertEquals(List.of(new Product("pen", 1.0, 100), new Product("ink", 5.0, 100)), WithTrait.withAll(products, "stock", 100)),
+        () -> assertEquals(List.of(new Product("pen", 1.0, 100), new Product("ink", 5.0, 100)), WithTrait.parallelWithAll(products, "stock", 100)),
+        () -> assertEquals(List.of(), WithTrait.withAll(List.<Product>of(), "stock", 100)),
+        () -> assertEquals(List.of(new Product("pen", 1.0, 3)), WithTrait.withAll(new LinkedList<>(List.of(new Product("pen", 2.0, 3))), "price", 1.0))
+    );
+  }
+
+  @Test
+  public void withAllMapped() {
+    record Product(String name, double price) {}
+    var products = IntStream.range(0, 10_000).mapToObj(i -> new Product("p" + i, i)).toList();
+    var expected = IntStream.range(0, 10_000).mapToObj(i -> new Product("p" + i, i * 2.0)).toList();
+    assertAll(
+        () -> assertEquals(expected, WithTrait.withAllMapped(products, "price", (Double price) -> price * 2.0)),
+        () -> assertEquals(expected, WithTrait.parallelWithAllMapped(products, "price", (Double price) -> price * 2.0)),
+        () -> assertEquals(List.of(new Product("PEN", 1.0)), WithTrait.withAllMapped(List.of(new Product("pen", 1.0)), "name", (String name) -> name.toUpperCase()))
+    );
+  }
+
+  @Test
+  public void withAllSeveralRecordClasses() {
+    interface Named {}
+    record Cat(String name) implements Named {}
+    record Dog(int age, String name) implements Named {}
+    List<Record> animals = List.of(new Cat("Garfield"), new Dog(3, "Rex"), new Cat("Felix"));
+    assertEquals(List.of(new Cat("Tom"), new Dog(3, "Tom"), new Cat("Tom")), WithTrait.withAll(animals, "name", "Tom"));
+  }
+
+  @Test
+  public void parallelWithAllSeveralRecordClasses() {
+    record Cat(String name) {}
+    record Dog(int age, String name) {}
+    var animals = IntStream.range(0, 10_000).<Record>mapToObj(i -> i % 2 == 0? new Cat("c" + i): new Dog(i, "d" + i)).toList();
+    var expected = IntStream.range(0, 10_000).<Record>mapToObj(i -> i % 2 == 0? new Cat("C" + i): new Dog(i, "D" + i)).toList();
+    assertEquals(expected, WithTrait.parallelWithAllMapped(animals, "name", (String name) -> name.toUpperCase()));
+  }
+
+  @Test
+  public void withAllNullValue() {
+    record Product(String name, double price) {}
+    var products = List.of(new Product("pen", 1.0), new Product("ink", 5.0));
+    var expected = List.of(new Product(null, 1.0), new Product(null, 5.0));
+    assertAll(
+        () -> assertEquals(expected, WithTrait.withAll(products, "name", null)),
+        () -> assertEquals(expected, WithTrait.parallelWithAll(products, "name", null))
+    );
+  }
+
+  @Test
+  public void withAllResultIsUnmodifiable() {
+    record Point(int x, int y) {}
+    var points = WithTrait.withAll(List.of(new Point(1, 2)), "x", 3);
+    assertThrows(UnsupportedOperationException.class, () -> points.set(0, new Point(0, 0)));
+  }
+
+  @Test
+  public void withAllInvalid() {
+    record Point(int x, int y) {}
+    var points = List.of(new Point(1, 2));
+    var pointsWithNull = new LinkedList<Point>();
+    pointsWithNull.add(null);
+    assertAll(
+        () -> assertThrows(IllegalStateException.class, () -> WithTrait.withAll(points, "z", 3)),
+        () -> assertThrows(ClassCastException.class, () -> WithTrait.withAll(points, "x", "foo")),
+        () -> assertThrows(ClassCastException.class, () -> WithTrait.withAllMapped(points, "x", (String s) -> s)),
+        () -> assertThrows(NullPointerException.class, () -> WithTrait.withAll(pointsWithNull, "x", 3)),
+        () -> assertThrows(NullPointerException.class, () -> WithTrait.withAll(null, "x", 3)),
+        () -> assertThrows(NullPointerException.class, () -> WithTrait.withAll(points, null, 3)),
+        () -> assertThrows(NullPointerException.class, () -> WithTrait.withAllMapped(points, "x", null))
+    );
+  }
+
+  @Test
+  public void withMapped() {
+    record Person(String name, int age) implements WithTrait<Person> {}
+    var person = new Person(" Bob ", 42);
+    assertAll(
+        () -> assertEquals(new Person("Bob", 42), person.withMapped("name", String::strip)),
+        () -> assertEquals(new Person(" Bob ", 43), person.<Integer>withMapped("age", age -> age + 1)),
+        () -> assertEquals(new Person(null, 42), person.withMapped("name", name -> null))
+    );
+  }
+
+  @Test
+  public void withMappedPrimitive() {
+    record Event(int count, long total, double mean) implements WithTrait<Event> {}
+    var event = new Event(0, 0L, 0.0);
+    for(var i = 0; i < 10; i++) {
+      var value = i;
+      event = event
+          .withMappedInt("count", count -> count + 1)
+          .withMappedLong("total", total -> total + value)
+          .withMappedDouble("mean", mean -> mean + value / 10.0);
+    }
+    assertEquals(new Event(10, 45L, 4.5), event);
+  }
+
+  @Test
+  public void withMappedInvalid() {
+    record Person(String name, int age) implements WithTrait<Person> {}
+    var person = new Person("Bob", 42);
+    assertAll(
+        () -> assertThrows(IllegalStateException.class, () -> person.withMappedInt("weight", x -> x)),
+        () -> assertThrows(IllegalStateException.class, () -> person.withMapped("weight", x -> x)),
+        () -> assertThrows(ClassCastException.class, () -> person.withMappedInt("name", x -> x)),
+        () -> assertThrows(ClassCastException.class, () -> person.withMappedLong("age", x -> x)),
+        () -> assertThrows(ClassCastException.class, () -> person.withMappedDouble("age", x -> x)),
+        () -> assertThrows(ClassCastException.class, () -> person.<Object>withMapped("age", x -> "foo")),
+        () -> assertThrows(NullPointerException.class, () -> person.withMapped("age", x -> null)),
+        () -> assertThrows(NullPointerException.class, () -> person.withMappedInt(null, x -> x)),
+        () -> assertThrows(NullPointerException.class, () -> person.withMappedInt("age", null))
+    );
+  }
+
+  record Address(String street, String city) {}
+  record Customer(String name, Address address) {}
+  record Order(int id, Customer customer, double amount) implements WithTrait<Order> {}
+
+  @Test
+  public void withPath() {
+    var order = new Order(1, new Customer("Bob", new Address("baker street", "London")), 10.0);
+    assertAll(
+        () -> assertEquals(new Order(1, new Customer("Bob", new Address("baker street", "Paris")), 10.0),
+            order.withPath("customer.address.city", "Paris")),
+        () -> assertEquals(new Order(1, new Customer("Ana", new Address("baker street", "London")), 10.0),
+            order.withPath("customer.name", "Ana")),
+        () -> assertEquals(new Order(2, order.customer(), 10.0), order.withPath("id", 2)),
+        () -> assertEquals(new Order(1, new Customer("Bob", null), 10.0), order.withPath("customer.address", null))
+    );
+  }
+
+  @Test
+  public void withPathSharesUntouchedValues() {
+    var order = new Order(1, new Customer("Bob", new Address("baker street", "London")), 10.0);
+    for(var i = 0; i < 10; i++) {
+      var order2 = order.withPath("customer.address.city", "Paris" + i);
+      assertAll(
+          () -> assertSame(order.customer().name(), order2.customer().name()),
+          () -> assertSame(order.customer().address().street(), order2.customer().address().street()),
+          () -> assertNotSame(order.customer(), order2.customer())
+      );
+    }
+  }
+
+  @Test
+  public void withPathInvalid() {
+    var order = new Order(1, new Customer("Bob", null), 10.0);
+    assertAll(
+        () -> assertThrows(IllegalStateException.class, () -> order.withPath("customer.phone", "1234")),
+        () -> assertThrows(IllegalStateException.class, () -> order.withPath("customer.name.length", 3)),
+        () -> assertThrows(IllegalStateException.class, () -> order.withPath("customer..name", "Ana")),
+        () -> assertThrows(IllegalStateException.class, () -> order.withPath("", "Ana")),
+        () -> assertThrows(ClassCastException.class, () -> order.withPath("customer.name", 3)),
+        () -> assertThrows(NullPointerException.class, () -> order.withPath("customer.address.city", "Paris")),
+        () -> assertThrows(NullPointerException.class, () -> order.withPath("amount", null)),
+        () -> assertThrows(NullPointerException.class, () -> order.withPath(null, 3))
+    );
+  }
+}
@@ -0,0 +1,4 @@
+package com.github.forax.recordutil.warmup;
+
+// a record warmed up by RecordWarmerTest
+public record Order(long id, Item item) {}